@@ -0,0 +1,435 @@
+package com.johnmayou.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+// Compact binary encoding of the AST, so a document can be parsed once and rendered
+// many times, in other processes.
+//
+// Layout: "MDA" version flags, then the root node. Every node is a varint tag followed
+// by its fields; child lists are a varint count followed by the children. Strings are
+// a varint header (length << 1 | isSourceRef) followed by either the utf-8 bytes or a
+// varint offset into the source, relative to the end of the previous source ref. Node tags
+// are FlatAst's. Trees are walked with explicit stacks, so deep nesting can't overflow the
+// call stack.
+public class AstCodec {
+  private static final byte[] MAGIC = { 'M', 'D', 'A' };
+  private static final int VERSION = 1;
+  private static final int FLAG_SOURCE_REFS = 1;
+
+  // shorter strings are cheaper to inline than to look up in the source
+  private static final int MIN_SOURCE_REF_LENGTH = 4;
+
+  // a string not found within this many chars past the previous source ref is inlined, so
+  // strings that aren't in the source (joined lines, text with escapes) can't each cost a
+  // search to the end of it
+  private static final int MAX_SOURCE_REF_DISTANCE = 1024;
+
+  private AstCodec() {
+  }
+
+  // Parses md and encodes its AST. With sourceRefs, strings found in md are stored as offsets
+  // into it (smaller, but md must be passed to render() as well).
+  public static byte[] encode(String md, boolean sourceRefs) {
+    return encode(new Compiler(), md, sourceRefs);
+  }
+
+  // as above, within the compiler's limits
+  public static byte[] encode(Compiler compiler, String md, boolean sourceRefs) {
+    CompileBudget budget = new CompileBudget(compiler.getOptions());
+    budget.checkInput(md.length());
+    Parser.ASTRootNode root = compiler.parse(compiler.tokenize(md, budget), budget);
+    return sourceRefs ? encode(root, md) : encode(root);
+  }
+
+  static byte[] encode(Parser.ASTRootNode root) {
+    return new Writer(null).write(root);
+  }
+
+  // strings found in source are stored as offsets into it, so source must be passed to
+  // decode() and render() as well
+  static byte[] encode(Parser.ASTRootNode root, String source) {
+    return new Writer(source).write(root);
+  }
+
+  static Parser.ASTRootNode decode(byte[] bytes) {
+    return decode(bytes, null);
+  }
+
+  static Parser.ASTRootNode decode(byte[] bytes, String source) {
+    Reader reader = new Reader(bytes, source);
+    return (Parser.ASTRootNode) reader.readTree();
+  }
+
+  // renders html straight from the encoded bytes, without building the record tree
+  public static String render(byte[] bytes) {
+    return render(bytes, null);
+  }
+
+  public static String render(byte[] bytes, String source) {
+    Reader reader = new Reader(bytes, source);
+    StringBuilder html = new StringBuilder(bytes.length * 2);
+    if (reader.readVarint() != FlatAst.ROOT) {
+      throw new RuntimeException("Expected root node");
+    }
+    reader.renderTree(html);
+    return html.toString();
+  }
+
+  private static class Writer {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final String source;
+    private int sourceCursor;
+
+    Writer(String source) {
+      this.source = source;
+    }
+
+    byte[] write(Parser.ASTRootNode root) {
+      this.out.writeBytes(MAGIC);
+      this.out.write(VERSION);
+      this.out.write(this.source == null ? 0 : FLAG_SOURCE_REFS);
+      writeTree(root);
+      return this.out.toByteArray();
+    }
+
+    private void writeTree(Parser.ASTRootNode root) {
+      Deque<Iterator<Parser.ASTNode>> stack = new ArrayDeque<>();
+      writeNode(root);
+      stack.push(root.children().iterator());
+      while (!stack.isEmpty()) {
+        Iterator<Parser.ASTNode> children = stack.peek();
+        if (!children.hasNext()) {
+          stack.pop();
+          continue;
+        }
+        Parser.ASTNode child = children.next();
+        writeNode(child);
+        if (!child.children().isEmpty()) {
+          stack.push(child.children().iterator());
+        }
+      }
+    }
+
+    // writes the tag and fields, and the child count of nodes with children; writeTree then
+    // writes the children
+    private void writeNode(Parser.ASTNode node) {
+      if (node instanceof Parser.ASTRootNode n) {
+        writeVarint(FlatAst.ROOT);
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTHeaderNode n) {
+        writeVarint(FlatAst.HEADER);
+        writeVarint(n.size());
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTCodeBlockNode n) {
+        writeVarint(FlatAst.CODE_BLOCK);
+        writeString(n.lang());
+        writeString(n.code());
+      } else if (node instanceof Parser.ASTCodeInlineNode n) {
+        writeVarint(FlatAst.CODE_INLINE);
+        writeString(n.lang());
+        writeString(n.code());
+      } else if (node instanceof Parser.ASTQuoteNode n) {
+        writeVarint(FlatAst.QUOTE);
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTQuoteItemNode n) {
+        writeVarint(FlatAst.QUOTE_ITEM);
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTParagraphNode n) {
+        writeVarint(FlatAst.PARAGRAPH);
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTTextNode n) {
+        writeVarint(FlatAst.TEXT);
+        this.out.write((n.bold() ? FlatAst.BOLD : 0) | (n.italic() ? FlatAst.ITALIC : 0));
+        writeString(n.text());
+      } else if (node instanceof Parser.ASTHorizontalRuleNode) {
+        writeVarint(FlatAst.HORIZONTAL_RULE);
+      } else if (node instanceof Parser.ASTImageNode n) {
+        writeVarint(FlatAst.IMAGE);
+        writeString(n.alt());
+        writeString(n.src());
+      } else if (node instanceof Parser.ASTLinkNode n) {
+        writeVarint(FlatAst.LINK);
+        writeString(n.text());
+        writeString(n.href());
+      } else if (node instanceof Parser.ASTListNode n) {
+        writeVarint(FlatAst.LIST);
+        this.out.write(n.ordered() ? 1 : 0);
+        writeVarint(n.children().size());
+      } else if (node instanceof Parser.ASTListItemNode n) {
+        writeVarint(FlatAst.LIST_ITEM);
+        writeVarint(n.children().size());
+      } else {
+        throw new RuntimeException("Invalid node: " + node);
+      }
+    }
+
+    private void writeString(String str) {
+      if (this.source != null && str.length() >= MIN_SOURCE_REF_LENGTH) {
+        // nodes are written in document order, so searching a bounded window forward from
+        // the last match keeps the total search linear
+        int offset = findInSource(str);
+        if (offset >= 0) {
+          writeVarint(str.length() << 1 | 1);
+          writeVarint(offset - this.sourceCursor);
+          this.sourceCursor = offset + str.length();
+          return;
+        }
+      }
+
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length << 1);
+      this.out.writeBytes(bytes);
+    }
+
+    private int findInSource(String str) {
+      int end = Math.min(this.source.length() - str.length(), this.sourceCursor + MAX_SOURCE_REF_DISTANCE);
+      char first = str.charAt(0);
+      for (int i = this.sourceCursor; i <= end; i++) {
+        if (this.source.charAt(i) == first && this.source.startsWith(str, i)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        this.out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      this.out.write(value);
+    }
+  }
+
+  private static class Reader {
+    private final byte[] bytes;
+    private final String source;
+    private int pos;
+    private int sourceCursor;
+
+    Reader(byte[] bytes, String source) {
+      if (bytes.length < 5 || bytes[0] != MAGIC[0] || bytes[1] != MAGIC[1] || bytes[2] != MAGIC[2]) {
+        throw new RuntimeException("Not an encoded AST");
+      }
+      if (bytes[3] != VERSION) {
+        throw new RuntimeException("Unsupported AST encoding version: " + bytes[3]);
+      }
+      if ((bytes[4] & FLAG_SOURCE_REFS) != 0 && source == null) {
+        throw new RuntimeException("AST was encoded with source refs, but no source was given");
+      }
+      this.bytes = bytes;
+      this.source = source;
+      this.pos = 5;
+    }
+
+    // a node whose children are still being read
+    private static class ReadFrame {
+      final int tag;
+      final int value;
+      final int count;
+      final List<Parser.ASTNode> children;
+
+      ReadFrame(int tag, int value, int count) {
+        this.tag = tag;
+        this.value = value;
+        this.count = count;
+        this.children = new ArrayList<>(count);
+      }
+
+      Parser.ASTNode build() {
+        switch (this.tag) {
+          case FlatAst.ROOT:
+            return new Parser.ASTRootNode(this.children);
+          case FlatAst.HEADER:
+            return new Parser.ASTHeaderNode(this.value, this.children);
+          case FlatAst.QUOTE:
+            return new Parser.ASTQuoteNode(this.children);
+          case FlatAst.QUOTE_ITEM:
+            return new Parser.ASTQuoteItemNode(this.children);
+          case FlatAst.PARAGRAPH:
+            return new Parser.ASTParagraphNode(this.children);
+          case FlatAst.LIST:
+            return new Parser.ASTListNode(this.value != 0, this.children);
+          default:
+            return new Parser.ASTListItemNode(this.children);
+        }
+      }
+    }
+
+    Parser.ASTNode readTree() {
+      Deque<ReadFrame> stack = new ArrayDeque<>();
+      Parser.ASTNode node = readNode(stack);
+      while (true) {
+        if (node != null) {
+          if (stack.isEmpty()) {
+            return node;
+          }
+          stack.peek().children.add(node);
+        }
+        ReadFrame frame = stack.peek();
+        if (frame.children.size() == frame.count) {
+          stack.pop();
+          node = frame.build();
+        } else {
+          node = readNode(stack);
+        }
+      }
+    }
+
+    // returns a leaf node, or pushes a frame for a node with children and returns null
+    private Parser.ASTNode readNode(Deque<ReadFrame> stack) {
+      int tag = readVarint();
+      switch (tag) {
+        case FlatAst.ROOT:
+        case FlatAst.QUOTE:
+        case FlatAst.QUOTE_ITEM:
+        case FlatAst.PARAGRAPH:
+        case FlatAst.LIST_ITEM:
+          stack.push(new ReadFrame(tag, 0, readVarint()));
+          return null;
+        case FlatAst.HEADER:
+          int size = readVarint();
+          stack.push(new ReadFrame(tag, size, readVarint()));
+          return null;
+        case FlatAst.LIST:
+          int ordered = this.bytes[this.pos++];
+          stack.push(new ReadFrame(tag, ordered, readVarint()));
+          return null;
+        case FlatAst.CODE_BLOCK:
+          return new Parser.ASTCodeBlockNode(readString(), readString());
+        case FlatAst.CODE_INLINE:
+          return new Parser.ASTCodeInlineNode(readString(), readString());
+        case FlatAst.TEXT:
+          int flags = this.bytes[this.pos++];
+          return new Parser.ASTTextNode(readString(), (flags & FlatAst.BOLD) != 0, (flags & FlatAst.ITALIC) != 0);
+        case FlatAst.HORIZONTAL_RULE:
+          return new Parser.ASTHorizontalRuleNode();
+        case FlatAst.IMAGE:
+          return new Parser.ASTImageNode(readString(), readString());
+        case FlatAst.LINK:
+          return new Parser.ASTLinkNode(readString(), readString());
+        default:
+          throw new RuntimeException("Invalid node tag: " + tag);
+      }
+    }
+
+    // a node whose children are still being rendered
+    private static class RenderFrame {
+      final String close;
+      int remaining;
+
+      RenderFrame(String close, int remaining) {
+        this.close = close;
+        this.remaining = remaining;
+      }
+    }
+
+    // renders the root's children, after its tag has been read
+    void renderTree(StringBuilder html) {
+      Deque<RenderFrame> stack = new ArrayDeque<>();
+      stack.push(new RenderFrame("", readVarint()));
+      while (!stack.isEmpty()) {
+        RenderFrame frame = stack.peek();
+        if (frame.remaining == 0) {
+          html.append(frame.close);
+          stack.pop();
+          continue;
+        }
+        frame.remaining--;
+        renderNode(html, stack);
+      }
+    }
+
+    // must produce exactly what CodeGen produces for the equivalent records; nodes with
+    // children get their open tag here and their close tag once renderTree has rendered them
+    private void renderNode(StringBuilder html, Deque<RenderFrame> stack) {
+      int tag = readVarint();
+      switch (tag) {
+        case FlatAst.HEADER:
+          int size = readVarint();
+          html.append("<h").append(size).append('>');
+          stack.push(new RenderFrame("</h" + size + ">", readVarint()));
+          break;
+        case FlatAst.CODE_BLOCK:
+          html.append("<pre><code class=\"").append(CodeGen.escapeHtml(readString())).append("\">")
+              .append(readString()).append("</code></pre>");
+          break;
+        case FlatAst.CODE_INLINE:
+          html.append("<code class=\"").append(CodeGen.escapeHtml(readString())).append("\">")
+              .append(readString()).append("</code>");
+          break;
+        case FlatAst.QUOTE:
+          html.append("<blockquote>");
+          stack.push(new RenderFrame("</blockquote>", readVarint()));
+          break;
+        case FlatAst.QUOTE_ITEM:
+        case FlatAst.PARAGRAPH:
+          html.append("<p>");
+          stack.push(new RenderFrame("</p>", readVarint()));
+          break;
+        case FlatAst.TEXT:
+          int flags = this.bytes[this.pos++];
+          boolean bold = (flags & FlatAst.BOLD) != 0;
+          boolean italic = (flags & FlatAst.ITALIC) != 0;
+          html.append(italic ? "<i>" : "").append(bold ? "<b>" : "")
+              .append(CodeGen.escapeHtml(readString()))
+              .append(bold ? "</b>" : "").append(italic ? "</i>" : "");
+          break;
+        case FlatAst.HORIZONTAL_RULE:
+          html.append("<hr>");
+          break;
+        case FlatAst.IMAGE:
+          html.append("<img alt=\"").append(CodeGen.escapeHtml(readString())).append("\" src=\"")
+              .append(CodeGen.escapeHtml(readString())).append("\"/>");
+          break;
+        case FlatAst.LINK:
+          String text = readString();
+          html.append("<a href=\"").append(CodeGen.escapeHtml(readString())).append("\">")
+              .append(CodeGen.escapeHtml(text)).append("</a>");
+          break;
+        case FlatAst.LIST:
+          boolean ordered = this.bytes[this.pos++] != 0;
+          html.append(ordered ? "<ol>" : "<ul>");
+          stack.push(new RenderFrame(ordered ? "</ol>" : "</ul>", readVarint()));
+          break;
+        case FlatAst.LIST_ITEM:
+          html.append("<li>");
+          stack.push(new RenderFrame("</li>", readVarint()));
+          break;
+        default:
+          throw new RuntimeException("Invalid node tag: " + tag);
+      }
+    }
+
+    private String readString() {
+      int header = readVarint();
+      int length = header >>> 1;
+      if ((header & 1) != 0) {
+        int offset = this.sourceCursor + readVarint();
+        this.sourceCursor = offset + length;
+        return this.source.substring(offset, offset + length);
+      }
+
+      String str = new String(this.bytes, this.pos, length, StandardCharsets.UTF_8);
+      this.pos += length;
+      return str;
+    }
+
+    int readVarint() {
+      int value = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = this.bytes[this.pos++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
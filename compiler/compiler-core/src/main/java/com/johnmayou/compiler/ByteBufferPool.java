@@ -0,0 +1,101 @@
+package com.johnmayou.compiler;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded pool of equally sized direct buffers. Direct memory is allocated lazily up to
+// maxBuffers and then reused; once they are all in use, acquire() hands out a plain heap
+// buffer instead of blocking or growing, and counts it as exhausted.
+public class ByteBufferPool {
+  private final int bufferSize;
+  private final int maxBuffers;
+  private final ConcurrentLinkedDeque<ByteBuffer> idle = new ConcurrentLinkedDeque<>();
+  // the pooled buffers handed out and not yet released, by identity (ByteBuffer.equals()
+  // compares contents); guarded by this.lent
+  private final Set<ByteBuffer> lent = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final AtomicInteger allocated = new AtomicInteger();
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final AtomicInteger peakInUse = new AtomicInteger();
+  private final AtomicLong acquired = new AtomicLong();
+  private final AtomicLong exhausted = new AtomicLong();
+
+  public ByteBufferPool(int bufferSize, int maxBuffers) {
+    this.bufferSize = bufferSize;
+    this.maxBuffers = maxBuffers;
+  }
+
+  public ByteBuffer acquire() {
+    this.acquired.incrementAndGet();
+    ByteBuffer buffer = this.idle.pollFirst();
+    if (buffer == null) {
+      int count = this.allocated.get();
+      while (count < this.maxBuffers && !this.allocated.compareAndSet(count, count + 1)) {
+        count = this.allocated.get();
+      }
+      if (count >= this.maxBuffers) {
+        this.exhausted.incrementAndGet();
+        return ByteBuffer.allocate(this.bufferSize);
+      }
+      buffer = ByteBuffer.allocateDirect(this.bufferSize);
+    }
+
+    synchronized (this.lent) {
+      this.lent.add(buffer);
+    }
+    this.peakInUse.accumulateAndGet(this.inUse.incrementAndGet(), Math::max);
+    return buffer;
+  }
+
+  // Heap buffers handed out when exhausted are left to the gc. So are buffers this pool
+  // didn't lend or already took back, so a double release can't put one buffer in the
+  // pool twice.
+  public void release(ByteBuffer buffer) {
+    synchronized (this.lent) {
+      if (!this.lent.remove(buffer)) {
+        return;
+      }
+    }
+    buffer.clear();
+    this.inUse.decrementAndGet();
+    // most recently used first, it's the most likely to still be in cache
+    this.idle.offerFirst(buffer);
+  }
+
+  public int getBufferSize() {
+    return this.bufferSize;
+  }
+
+  public int getMaxBuffers() {
+    return this.maxBuffers;
+  }
+
+  public int getAllocated() {
+    return this.allocated.get();
+  }
+
+  public int getInUse() {
+    return this.inUse.get();
+  }
+
+  public int getPeakInUse() {
+    return this.peakInUse.get();
+  }
+
+  public long getAcquired() {
+    return this.acquired.get();
+  }
+
+  public long getExhausted() {
+    return this.exhausted.get();
+  }
+
+  // fraction of the pool's buffers currently handed out
+  public double getOccupancy() {
+    return (double) this.inUse.get() / this.maxBuffers;
+  }
+}
@@ -0,0 +1,117 @@
+package com.johnmayou.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompileBudget {
+  private final CompileOptions options;
+  private final long deadline;
+  private volatile boolean cancelled;
+  private int ticks;
+  // tokens of the parts of the document compiled so far, see chargeTokens()
+  private long chargedTokens;
+  private final List<CompileException> diagnostics = new ArrayList<>();
+  private int diagnosticCount;
+
+  // only look at the clock every 256 ticks, since the loops calling tick() are hot; the
+  // cancelled flag is just a field read, so it's checked on every tick
+  private static final int DEADLINE_CHECK_MASK = 0xff;
+  // a document full of errors keeps its first ones, the rest are only counted
+  private static final int MAX_DIAGNOSTICS = 100;
+
+  public CompileBudget(CompileOptions options) {
+    this.options = options;
+    this.deadline = options.timeout() == null ? 0 : System.nanoTime() + options.timeout().toNanos();
+  }
+
+  public static CompileBudget unlimited() {
+    return new CompileBudget(CompileOptions.UNLIMITED);
+  }
+
+  public CompileOptions getOptions() {
+    return this.options;
+  }
+
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  public void checkInput(int length) {
+    if (length > this.options.maxInputLength()) {
+      throw new CompileLimitException(CompileLimitException.Limit.INPUT_LENGTH,
+          "Input length " + length + " exceeds limit of " + this.options.maxInputLength());
+    }
+  }
+
+  public void checkTokens(int count) {
+    if (this.chargedTokens + count > this.options.maxTokens()) {
+      throw new CompileLimitException(CompileLimitException.Limit.TOKENS,
+          "Token count exceeds limit of " + this.options.maxTokens());
+    }
+  }
+
+  // For compiles done in parts (a FragmentCache's blocks), each counting its tokens from zero:
+  // adds a finished part's tokens to the total the later parts are checked against.
+  public void chargeTokens(int count) {
+    checkTokens(count);
+    this.chargedTokens += count;
+  }
+
+  public void checkDepth(int depth) {
+    if (depth > this.options.maxNestingDepth()) {
+      throw new CompileLimitException(CompileLimitException.Limit.NESTING_DEPTH,
+          "Nesting depth exceeds limit of " + this.options.maxNestingDepth());
+    }
+  }
+
+  public void checkOutput(int length) {
+    if (length > this.options.maxOutputLength()) {
+      throw new CompileLimitException(CompileLimitException.Limit.OUTPUT_LENGTH,
+          "Output length exceeds limit of " + this.options.maxOutputLength());
+    }
+  }
+
+  public void tick() {
+    if (this.cancelled) {
+      throw cancelled();
+    }
+    if ((++this.ticks & DEADLINE_CHECK_MASK) != 0) {
+      return;
+    }
+    checkDeadline();
+  }
+
+  public void checkDeadline() {
+    if (this.cancelled) {
+      throw cancelled();
+    }
+    if (this.options.timeout() != null && System.nanoTime() - this.deadline > 0) {
+      throw new CompileLimitException(CompileLimitException.Limit.DEADLINE,
+          "Compile exceeded timeout of " + this.options.timeout().toMillis() + "ms");
+    }
+  }
+
+  private static CompileLimitException cancelled() {
+    return new CompileLimitException(CompileLimitException.Limit.CANCELLED, "Compile was cancelled");
+  }
+
+  // errors skipped over in recovery mode
+  public void report(CompileException e) {
+    this.diagnosticCount++;
+    if (this.diagnostics.size() < MAX_DIAGNOSTICS) {
+      this.diagnostics.add(e);
+    }
+  }
+
+  public List<CompileException> getDiagnostics() {
+    return this.diagnostics;
+  }
+
+  public int getDiagnosticCount() {
+    return this.diagnosticCount;
+  }
+}
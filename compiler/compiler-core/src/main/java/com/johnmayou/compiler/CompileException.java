@@ -0,0 +1,87 @@
+package com.johnmayou.compiler;
+
+import java.lang.reflect.RecordComponent;
+
+// A document the compiler can't make sense of. Carries where it happened and a short excerpt
+// instead of the whole token list, so failing on a huge document is as cheap as succeeding.
+// Line and column are 1-based, or -1 when the tokens didn't come with their source.
+public class CompileException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+  private static final int MAX_TOKEN_LENGTH = 60;
+  private static final int CONTEXT_RADIUS = 40;
+
+  private final int line;
+  private final int column;
+  private final String token;
+  private final String context;
+
+  public CompileException(String message, int line, int column, String token, String context) {
+    super(message + (line < 0 ? "" : " at " + line + ":" + column) + (token == null ? "" : ", found " + token)
+        + (context == null ? "" : "\n" + context));
+    this.line = line;
+    this.column = column;
+    this.token = token;
+    this.context = context;
+  }
+
+  public int getLine() {
+    return this.line;
+  }
+
+  public int getColumn() {
+    return this.column;
+  }
+
+  public String getToken() {
+    return this.token;
+  }
+
+  public String getContext() {
+    return this.context;
+  }
+
+  static String describe(Object token) {
+    if (token == null) {
+      return "end of input";
+    }
+    return clip(token instanceof Record ? describeRecord((Record) token) : token.toString());
+  }
+
+  // same text as the record's toString(), but each field is clipped before it's formatted, so
+  // a token holding a huge code block is as cheap to describe as a small one
+  private static String describeRecord(Record token) {
+    StringBuilder description = new StringBuilder(token.getClass().getSimpleName()).append('[');
+    RecordComponent[] components = token.getClass().getRecordComponents();
+    for (int i = 0; i < components.length && description.length() <= MAX_TOKEN_LENGTH; i++) {
+      Object value;
+      try {
+        value = components[i].getAccessor().invoke(token);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(e);
+      }
+      description.append(i == 0 ? "" : ", ").append(components[i].getName()).append('=')
+          .append(value instanceof String ? clip((String) value) : String.valueOf(value));
+    }
+    return description.append(']').toString();
+  }
+
+  private static String clip(String description) {
+    return description.length() <= MAX_TOKEN_LENGTH ? description
+        : description.substring(0, MAX_TOKEN_LENGTH) + "...";
+  }
+
+  // the line around column, clipped to a window, with a caret under the column
+  static String context(CharSequence source, int lineStart, int column) {
+    int lineEnd = lineStart;
+    while (lineEnd < source.length() && source.charAt(lineEnd) != '\n') {
+      lineEnd++;
+    }
+
+    int from = Math.max(lineStart, lineStart + column - 1 - CONTEXT_RADIUS);
+    int to = Math.min(lineEnd, lineStart + column - 1 + CONTEXT_RADIUS);
+    String prefix = from > lineStart ? "..." : "";
+    String suffix = to < lineEnd ? "..." : "";
+    return "  " + prefix + source.subSequence(from, to) + suffix + "\n"
+        + "  " + " ".repeat(prefix.length() + lineStart + column - 1 - from) + "^";
+  }
+}
@@ -0,0 +1,27 @@
+package com.johnmayou.compiler;
+
+public class CompileLimitException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public enum Limit {
+    INPUT_LENGTH,
+    TOKENS,
+    NESTING_DEPTH,
+    OUTPUT_LENGTH,
+    DEADLINE,
+    CANCELLED,
+    // shed by CompileScheduler's admission control
+    OVERLOADED
+  }
+
+  private final Limit limit;
+
+  public CompileLimitException(Limit limit, String message) {
+    super(message);
+    this.limit = limit;
+  }
+
+  public Limit getLimit() {
+    return this.limit;
+  }
+}
@@ -0,0 +1,49 @@
+package com.johnmayou.compiler;
+
+import java.time.Duration;
+
+public record CompileOptions(
+    int maxInputLength,
+    int maxTokens,
+    int maxNestingDepth,
+    int maxOutputLength,
+    Duration timeout,
+    // skip constructs that fail to parse (see CompileBudget.getDiagnostics()) instead of throwing
+    boolean recover) {
+
+  public static final CompileOptions UNLIMITED = new CompileOptions(
+      Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, null, false);
+
+  // sized so a single request can't hold a worker thread for long
+  public static final CompileOptions DEFAULT = new CompileOptions(
+      1 << 22, // 4M chars
+      1 << 20, // 1M tokens
+      64,
+      1 << 24, // 16M chars
+      Duration.ofSeconds(2),
+      false);
+
+  public CompileOptions withMaxInputLength(int maxInputLength) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+
+  public CompileOptions withMaxTokens(int maxTokens) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+
+  public CompileOptions withMaxNestingDepth(int maxNestingDepth) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+
+  public CompileOptions withMaxOutputLength(int maxOutputLength) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+
+  public CompileOptions withTimeout(Duration timeout) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+
+  public CompileOptions withRecover(boolean recover) {
+    return new CompileOptions(maxInputLength, maxTokens, maxNestingDepth, maxOutputLength, timeout, recover);
+  }
+}
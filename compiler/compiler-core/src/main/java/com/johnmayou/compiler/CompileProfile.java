@@ -0,0 +1,138 @@
+package com.johnmayou.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Where one compile spent its time, from Compiler.explain: time and allocated bytes per stage,
+// attempts, hits and time per lexer rule, token and node counts by type and the lines that
+// took longest to lex. Times include the cost of measuring them, which mostly inflates lex
+// since every rule attempt is timed; compare them with each other, not with compile().
+public record CompileProfile(String html, List<Stage> stages, List<Rule> rules, Map<String, Integer> tokens,
+    Map<String, Integer> nodes, List<Line> slowestLines) {
+  static final int SLOWEST_LINES = 10;
+  static final int LINE_EXCERPT = 80;
+
+  // allocatedBytes is -1 where the JVM can't count allocations per thread
+  public record Stage(String name, long nanos, long allocatedBytes) {
+  }
+
+  // A block rule's time includes the inline rules it runs on the rest of its line.
+  public record Rule(String name, int attempts, int hits, long nanos) {
+  }
+
+  // line is 1-based; the time is for the block rules that started on it, so a code block
+  // counts against its opening fence
+  public record Line(int line, long nanos, String text) {
+  }
+
+  // Collects while a compile runs. Only explain() creates one; everywhere else the lexer's
+  // recorder is null and measuring costs a null check per rule.
+  static class Recorder {
+    private final String source;
+    private final LineIndex lines;
+    private final long[] lineNanos;
+    private final Map<String, long[]> rules = new LinkedHashMap<>(); // {attempts, hits, nanos}
+    private final List<Stage> stages = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean threads;
+    private long stageStart;
+    private long stageAllocated;
+
+    Recorder(String source) {
+      this.source = source;
+      this.lines = new LineIndex(source);
+      this.lineNanos = new long[this.lines.lineCount()];
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      this.threads = threads instanceof com.sun.management.ThreadMXBean counting
+          && counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled() ? counting : null;
+    }
+
+    void begin() {
+      this.stageAllocated = allocated();
+      this.stageStart = System.nanoTime();
+    }
+
+    // ends the stage begun by begin() or the previous stage() and starts the next one
+    void stage(String name) {
+      long end = System.nanoTime();
+      long allocated = allocated();
+      this.stages.add(new Stage(name, end - this.stageStart, allocated < 0 ? -1 : allocated - this.stageAllocated));
+      this.stageAllocated = allocated();
+      this.stageStart = System.nanoTime();
+    }
+
+    void rule(String name, boolean hit, long nanos) {
+      long[] counts = this.rules.computeIfAbsent(name, k -> new long[3]);
+      counts[0]++;
+      if (hit) {
+        counts[1]++;
+      }
+      counts[2] += nanos;
+    }
+
+    void line(int offset, long nanos) {
+      this.lineNanos[this.lines.lineOf(offset)] += nanos;
+    }
+
+    CompileProfile finish(String html, List<Lexer.Token> tks, Parser.ASTRootNode ast) {
+      List<Rule> rules = new ArrayList<>();
+      this.rules.forEach((name, counts) -> rules.add(new Rule(name, (int) counts[0], (int) counts[1], counts[2])));
+      rules.sort(Comparator.comparingLong(Rule::nanos).reversed());
+
+      Map<String, Integer> tokens = new LinkedHashMap<>();
+      for (Lexer.Token tk : tks) {
+        tokens.merge(tk.getClass().getSimpleName(), 1, Integer::sum);
+      }
+      Map<String, Integer> nodes = new LinkedHashMap<>();
+      Deque<Parser.ASTNode> stack = new ArrayDeque<>();
+      stack.push(ast);
+      while (!stack.isEmpty()) {
+        Parser.ASTNode node = stack.pop();
+        nodes.merge(node.getClass().getSimpleName(), 1, Integer::sum);
+        for (Parser.ASTNode child : node.children()) {
+          stack.push(child);
+        }
+      }
+
+      return new CompileProfile(html, List.copyOf(this.stages), List.copyOf(rules), byCount(tokens), byCount(nodes),
+          slowestLines());
+    }
+
+    private List<Line> slowestLines() {
+      List<Integer> order = new ArrayList<>();
+      for (int line = 0; line < this.lineNanos.length; line++) {
+        if (this.lineNanos[line] > 0) {
+          order.add(line);
+        }
+      }
+      order.sort(Comparator.comparingLong((Integer line) -> this.lineNanos[line]).reversed());
+
+      List<Line> slowest = new ArrayList<>();
+      for (int line : order.subList(0, Math.min(SLOWEST_LINES, order.size()))) {
+        int start = this.lines.lineStart(line);
+        int end = line + 1 < this.lines.lineCount() ? this.lines.lineStart(line + 1) - 1 : this.source.length();
+        String text = this.source.substring(start, Math.min(end, start + LINE_EXCERPT));
+        slowest.add(new Line(line + 1, this.lineNanos[line], text));
+      }
+      return slowest;
+    }
+
+    private long allocated() {
+      return this.threads == null ? -1 : this.threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private static Map<String, Integer> byCount(Map<String, Integer> counts) {
+      Map<String, Integer> sorted = new LinkedHashMap<>();
+      counts.entrySet().stream()
+          .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+          .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+      return sorted;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package com.johnmayou.compiler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Runs compiles on two pools sized by input length, so a few huge documents can't hold every
+// worker while hundreds of small ones queue behind them. Length is the cost estimate: inputs
+// under heavyThreshold chars go to the fast lane, the rest to a smaller heavy lane. Each lane
+// admits work only while its queued chars are under a cap, and sheds the rest with an
+// OVERLOADED CompileLimitException instead of letting latency grow without bound. The compile
+// deadline starts at submission, so a compile that waited out its timeout in the queue fails
+// before doing any work. Cancelling a returned future cancels it right away and cancels its
+// compile's budget, so the compile stops at its next check; a cancelled submit(md, out) closes
+// out itself once the compile has stopped writing to it.
+public class CompileScheduler implements AutoCloseable {
+  private final Compiler compiler;
+  private final CompileOptions options;
+  private final int heavyThreshold;
+  private final Lane fast;
+  private final Lane heavy;
+
+  public CompileScheduler(Compiler compiler, CompileOptions options) {
+    this(compiler, options, Runtime.getRuntime().availableProcessors(),
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 4), 64 * 1024, 1 << 22, 1 << 24);
+  }
+
+  public CompileScheduler(Compiler compiler, CompileOptions options, int fastThreads, int heavyThreads,
+      int heavyThreshold, long maxFastQueuedChars, long maxHeavyQueuedChars) {
+    this.compiler = compiler;
+    this.options = options;
+    this.heavyThreshold = heavyThreshold;
+    this.fast = new Lane("fast", fastThreads, maxFastQueuedChars);
+    this.heavy = new Lane("heavy", heavyThreads, maxHeavyQueuedChars);
+  }
+
+  public CompletableFuture<String> submit(String md) {
+    return schedule(md, budget -> this.compiler.compile(md, budget), () -> {});
+  }
+
+  // Unless the future is cancelled, out is the caller's to close once it completes. A cancelled
+  // future completes while the compile may still be writing, so the scheduler closes out then.
+  public CompletableFuture<Void> submit(String md, Utf8Output out) {
+    return schedule(md, budget -> {
+      this.compiler.compileTo(md, out, budget);
+      return null;
+    }, out::close);
+  }
+
+  // Explaining times every rule and runs several times slower than compiling, so it always
+  // goes to the heavy lane rather than taking workers from small documents.
+  public CompletableFuture<CompileProfile> submitExplain(String md) {
+    return schedule(md, this.heavy, budget -> this.compiler.explain(md, budget), () -> {});
+  }
+
+  // blocking versions for callers on their own thread (e.g. a servlet), rethrowing what the
+  // compile threw
+  public String compile(String md) {
+    return join(submit(md));
+  }
+
+  public void compileTo(String md, Utf8Output out) {
+    join(submit(md, out));
+  }
+
+  public CompileProfile explain(String md) {
+    return join(submitExplain(md));
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private <T> CompletableFuture<T> schedule(String md, Function<CompileBudget, T> work, Runnable afterCancel) {
+    return schedule(md, md.length() < this.heavyThreshold ? this.fast : this.heavy, work, afterCancel);
+  }
+
+  private <T> CompletableFuture<T> schedule(String md, Lane lane, Function<CompileBudget, T> work,
+      Runnable afterCancel) {
+    CompileBudget budget = new CompileBudget(this.options);
+    // reject oversized input before it takes up queue space, failing the future like every
+    // other limit rather than throwing at the caller
+    try {
+      budget.checkInput(md.length());
+    } catch (CompileLimitException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return lane.submit(md.length(), budget, work, afterCancel);
+  }
+
+  public List<LaneStats> stats() {
+    return List.of(this.fast.stats(), this.heavy.stats());
+  }
+
+  @Override
+  public void close() {
+    this.fast.executor.shutdown();
+    this.heavy.executor.shutdown();
+    try {
+      this.fast.executor.awaitTermination(10, TimeUnit.SECONDS);
+      this.heavy.executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public record LaneStats(
+      String name,
+      int threads,
+      int queued,
+      long queuedChars,
+      int active,
+      long completed,
+      long rejected,
+      double meanWaitMillis,
+      double p99WaitMillis,
+      double maxWaitMillis) {
+  }
+
+  private static class Lane {
+    // recent waits kept for the percentile
+    private static final int WAIT_SAMPLES = 1024;
+
+    private final String name;
+    private final int threads;
+    private final long maxQueuedChars;
+    private final ExecutorService executor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong queuedChars = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    // guarded by this.waits
+    private final long[] waits = new long[WAIT_SAMPLES];
+    private long waitCount;
+
+    Lane(String name, int threads, long maxQueuedChars) {
+      this.name = name;
+      this.threads = threads;
+      this.maxQueuedChars = maxQueuedChars;
+      AtomicInteger threadCount = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "compile-" + name + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    // afterCancel runs on the worker once a cancelled compile has stopped
+    <T> CompletableFuture<T> submit(int cost, CompileBudget budget, Function<CompileBudget, T> work,
+        Runnable afterCancel) {
+      // a single input larger than the cap is still admitted into an empty queue
+      long chars = this.queuedChars.addAndGet(cost);
+      if (chars > this.maxQueuedChars && chars != cost) {
+        this.queuedChars.addAndGet(-cost);
+        this.rejected.incrementAndGet();
+        return CompletableFuture.failedFuture(new CompileLimitException(CompileLimitException.Limit.OVERLOADED,
+            "The " + this.name + " compile queue is full"));
+      }
+
+      this.queued.incrementAndGet();
+      long submitted = System.nanoTime();
+      CompletableFuture<T> future = new CompletableFuture<>() {
+        // The budget makes the compile stop at its next check rather than run on unobserved; a
+        // queued compile fails as soon as a worker picks it up, without running.
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+          budget.cancel();
+          return super.cancel(mayInterruptIfRunning);
+        }
+      };
+      this.executor.execute(() -> {
+        this.queued.decrementAndGet();
+        this.queuedChars.addAndGet(-cost);
+        recordWait(System.nanoTime() - submitted);
+        this.active.incrementAndGet();
+        T result = null;
+        Throwable failure = null;
+        try {
+          budget.checkDeadline();
+          result = work.apply(budget);
+        } catch (Throwable e) {
+          failure = e;
+        }
+        // counted before completing, so stats() already shows it to whoever joins the future
+        this.active.decrementAndGet();
+        this.completed.incrementAndGet();
+        if (failure == null) {
+          future.complete(result);
+        } else {
+          future.completeExceptionally(failure);
+        }
+        // once done the future can't become cancelled, so this can't miss a late cancel
+        if (future.isCancelled()) {
+          afterCancel.run();
+        }
+      });
+      return future;
+    }
+
+    private void recordWait(long nanos) {
+      this.totalWaitNanos.addAndGet(nanos);
+      this.maxWaitNanos.accumulateAndGet(nanos, Math::max);
+      synchronized (this.waits) {
+        this.waits[(int) (this.waitCount++ % WAIT_SAMPLES)] = nanos;
+      }
+    }
+
+    LaneStats stats() {
+      long[] recent;
+      long count;
+      synchronized (this.waits) {
+        count = this.waitCount;
+        recent = Arrays.copyOf(this.waits, (int) Math.min(count, WAIT_SAMPLES));
+      }
+      Arrays.sort(recent);
+      double p99 = recent.length == 0 ? 0 : recent[(int) Math.ceil(recent.length * 0.99) - 1] / 1e6;
+      double mean = count == 0 ? 0 : this.totalWaitNanos.get() / 1e6 / count;
+
+      return new LaneStats(this.name, this.threads, this.queued.get(), this.queuedChars.get(), this.active.get(),
+          this.completed.get(), this.rejected.get(), mean, p99, this.maxWaitNanos.get() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,1460 @@
+package com.johnmayou.compiler;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.ArrayDeque;
+import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+import java.util.regex.Matcher;
+import java.text.MessageFormat;
+
+public class Compiler {
+  private final CompileOptions options;
+  private final FragmentCache fragmentCache;
+
+  public Compiler() {
+    this(CompileOptions.UNLIMITED);
+  }
+
+  public Compiler(CompileOptions options) {
+    this(options, null);
+  }
+
+  public Compiler(CompileOptions options, FragmentCache fragmentCache) {
+    this.options = options;
+    this.fragmentCache = fragmentCache;
+  }
+
+  public CompileOptions getOptions() {
+    return this.options;
+  }
+
+  public String compile(String md) {
+    return compile(md, new CompileBudget(this.options));
+  }
+
+  public String compile(String md, CompileBudget budget) {
+    return compile(md, budget, null);
+  }
+
+  // Writes the html into out as UTF-8 instead of returning it, so it can go to a socket
+  // without the String and byte[] copies in between.
+  public void compileTo(String md, Utf8Output out) {
+    compileTo(md, out, new CompileBudget(this.options));
+  }
+
+  public void compileTo(String md, Utf8Output out, CompileBudget budget) {
+    compile(md, budget, out);
+  }
+
+  private String compile(String md, CompileBudget budget, Utf8Output out) {
+    CompilerEvents.Compile event = new CompilerEvents.Compile();
+    event.begin();
+
+    String html = null;
+    List<Lexer.Token> tks = null;
+    Parser.ASTRootNode ast = null;
+    int outputStart = out == null ? 0 : out.length();
+    // stage timings are only taken while a recording is listening for this event
+    boolean timed = event.isEnabled();
+    long start = timed ? System.nanoTime() : 0;
+    long lexed = 0;
+    long parsed = 0;
+    String outcome = "ok";
+    try {
+      budget.checkInput(md.length());
+      if (this.fragmentCache != null) {
+        html = compileBlocks(md, budget);
+        if (out != null) {
+          out.append(html);
+        }
+      } else {
+        tks = tokenize(md, budget);
+        lexed = timed ? System.nanoTime() : 0;
+        ast = parse(tks, budget);
+        parsed = timed ? System.nanoTime() : 0;
+        html = gen(ast, budget, out);
+      }
+      return html;
+    } catch (CompileLimitException e) {
+      outcome = e.getLimit().name();
+      throw e;
+    } catch (RuntimeException e) {
+      outcome = e.getClass().getSimpleName();
+      throw e;
+    } finally {
+      // failed compiles are committed too, they're the slow and hostile documents worth finding
+      event.end();
+      if (event.shouldCommit()) {
+        if (timed && lexed != 0) {
+          event.lexDuration = lexed - start;
+          if (parsed != 0) {
+            event.parseDuration = parsed - lexed;
+            event.genDuration = System.nanoTime() - parsed;
+          }
+        }
+        event.outcome = outcome;
+        event.inputLength = md.length();
+        event.outputLength = html != null ? html.length() : out != null ? out.length() - outputStart : 0;
+        event.fragmentCache = this.fragmentCache != null;
+        if (tks != null) {
+          event.tokenCount = tks.size();
+        }
+        if (ast != null) {
+          event.nodeCount = CompilerEvents.countNodes(ast);
+        }
+        event.commit();
+      }
+    }
+  }
+
+  private String compileBlocks(String md, CompileBudget budget) {
+    StringBuilder html = new StringBuilder();
+    for (String block : FragmentCache.splitBlocks(md)) {
+      FragmentCache.Fragment fragment = this.fragmentCache.get(block);
+      if (fragment == null) {
+        int diagnostics = budget.getDiagnosticCount();
+        List<Lexer.Token> tks = tokenize(block, budget);
+        fragment = new FragmentCache.Fragment(gen(parse(tks, budget), budget), tks.size());
+        // a cache hit wouldn't report the block's errors again
+        if (budget.getDiagnosticCount() == diagnostics) {
+          this.fragmentCache.put(block, fragment);
+        }
+      }
+      // each block counts its tokens from zero, so add them to the document's total
+      budget.chargeTokens(fragment.tokens());
+      html.append(fragment.html());
+      budget.checkOutput(html.length());
+    }
+    return html.toString();
+  }
+
+  // Compiles md once with every stage and lexer rule measured, for finding out why one
+  // document is slow. Always does the full pipeline, even with a fragment cache.
+  public CompileProfile explain(String md) {
+    return explain(md, new CompileBudget(this.options));
+  }
+
+  public CompileProfile explain(String md, CompileBudget budget) {
+    budget.checkInput(md.length());
+
+    CompileProfile.Recorder recorder = new CompileProfile.Recorder(md);
+    recorder.begin();
+    List<Lexer.Token> tks = new Lexer(md, budget, recorder).tokenize();
+    recorder.stage("lex");
+    Parser.ASTRootNode ast = new Parser(tks, budget).parse();
+    recorder.stage("parse");
+    String html = new CodeGen(ast, budget).gen();
+    recorder.stage("gen");
+    return recorder.finish(html, tks, ast);
+  }
+
+  // The stages one at a time, for the caches, tools and tests in this package. Tokens and AST
+  // nodes aren't part of the module's API, so neither are these.
+  List<Lexer.Token> tokenize(String md) {
+    return tokenize(md, new CompileBudget(this.options));
+  }
+
+  List<Lexer.Token> tokenize(String md, CompileBudget budget) {
+    CompilerEvents.Stage event = new CompilerEvents.Stage();
+    event.begin();
+    List<Lexer.Token> tks = new Lexer(md, budget).tokenize();
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = "lex";
+      event.inputLength = md.length();
+      event.tokenCount = tks.size();
+      event.commit();
+    }
+    return tks;
+  }
+
+  Parser.ASTRootNode parse(List<Lexer.Token> tks) {
+    return parse(tks, new CompileBudget(this.options));
+  }
+
+  Parser.ASTRootNode parse(List<Lexer.Token> tks, CompileBudget budget) {
+    CompilerEvents.Stage event = new CompilerEvents.Stage();
+    event.begin();
+    Parser.ASTRootNode ast = new Parser(tks, budget).parse();
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = "parse";
+      event.tokenCount = tks.size();
+      event.nodeCount = CompilerEvents.countNodes(ast);
+      event.commit();
+    }
+    return ast;
+  }
+
+  String gen(Parser.ASTRootNode ast) {
+    return gen(ast, new CompileBudget(this.options));
+  }
+
+  String gen(Parser.ASTRootNode ast, CompileBudget budget) {
+    return gen(ast, budget, null);
+  }
+
+  // returns the html, or null when it was written into out
+  private String gen(Parser.ASTRootNode ast, CompileBudget budget, Utf8Output out) {
+    CompilerEvents.Stage event = new CompilerEvents.Stage();
+    event.begin();
+    String html = null;
+    int outputStart = out == null ? 0 : out.length();
+    if (out == null) {
+      html = new CodeGen(ast, budget).gen();
+    } else {
+      new CodeGen(ast, budget).genTo(out);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = "gen";
+      event.nodeCount = CompilerEvents.countNodes(ast);
+      event.outputLength = html != null ? html.length() : out.length() - outputStart;
+      event.commit();
+    }
+    return html;
+  }
+
+  // parses md into the flat arena, for gen(FlatAst)
+  public FlatAst parseFlat(String md) {
+    CompileBudget budget = new CompileBudget(this.options);
+    budget.checkInput(md.length());
+    return new Parser(tokenize(md, budget), budget).parseFlat();
+  }
+
+  FlatAst parseFlat(List<Lexer.Token> tks) {
+    return new Parser(tks, new CompileBudget(this.options)).parseFlat();
+  }
+
+  public String gen(FlatAst ast) {
+    return new FlatCodeGen(ast, new CompileBudget(this.options)).gen();
+  }
+
+  // watch <dir> [outDir]: compiles every markdown file under dir, then keeps recompiling
+  // the ones that change until interrupted
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length >= 2 && args[0].equals("watch")) {
+      WatchCompiler.run(Arrays.copyOfRange(args, 1, args.length));
+    } else {
+      System.err.println("usage: Compiler watch <dir> [outDir]");
+      System.exit(2);
+    }
+  }
+}
+
+class Lexer {
+  private CharBuffer md;
+  private LineIndex lines;
+  private TokenList tks;
+  private CompileBudget budget;
+  private CompileProfile.Recorder recorder; // null unless explaining
+
+  int LIST_INDENT_SIZE = 2;
+
+  public interface Token {
+  }
+
+  // The lexer's tokens along with the source offset each one starts at, so the parser can
+  // point at the line and column of a token it doesn't expect. Read-only as a List; tokens
+  // only go in through add(token, offset) so the offsets can't fall out of step.
+  public static class TokenList extends AbstractList<Token> implements RandomAccess {
+    private final String source;
+    private Token[] tokens = new Token[16];
+    private int[] offsets = new int[16];
+    private int size;
+
+    public TokenList(String source) {
+      this.source = source;
+    }
+
+    public void add(Token token, int offset) {
+      if (this.size == this.tokens.length) {
+        this.tokens = Arrays.copyOf(this.tokens, this.size * 2);
+        this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+      }
+      this.tokens[this.size] = token;
+      this.offsets[this.size] = offset;
+      this.size++;
+    }
+
+    @Override
+    public Token get(int index) {
+      Objects.checkIndex(index, this.size);
+      return this.tokens[index];
+    }
+
+    @Override
+    public int size() {
+      return this.size;
+    }
+
+    public int offsetOf(int index) {
+      Objects.checkIndex(index, this.size);
+      return this.offsets[index];
+    }
+
+    public String getSource() {
+      return this.source;
+    }
+  }
+
+  public static record HeaderToken(int size) implements Token {
+  }
+
+  public static record TextToken(String text, boolean bold, boolean italic) implements Token {
+  }
+
+  public static record ListItemToken(int indent, boolean ordered, int digit) implements Token {
+  }
+
+  public static record CodeBlockToken(String lang, String code) implements Token {
+  }
+
+  public static record CodeInlineToken(String lang, String code) implements Token {
+  }
+
+  public static record BlockQuoteToken(int indent) implements Token {
+  }
+
+  public static record ImageToken(String alt, String src) implements Token {
+  }
+
+  public static record LinkToken(String text, String href) implements Token {
+  }
+
+  public static record HorizontalRuleToken() implements Token {
+  }
+
+  public static record NewLineToken() implements Token {
+  }
+
+  public Lexer(String md) {
+    this(md, CompileBudget.unlimited());
+  }
+
+  public Lexer(String md, CompileBudget budget) {
+    this(md, budget, null);
+  }
+
+  Lexer(String md, CompileBudget budget, CompileProfile.Recorder recorder) {
+    this.md = CharBuffer.wrap(md);
+    this.lines = new LineIndex(md);
+    this.tks = new TokenList(md);
+    this.budget = budget;
+    this.recorder = recorder;
+  }
+
+  public List<Token> tokenize() {
+    while (!this.md.isEmpty()) {
+      this.budget.tick();
+      this.budget.checkTokens(this.tks.size());
+
+      long start = startRule();
+      int position = this.md.position();
+      tokenizeBlock();
+      if (this.recorder != null) {
+        this.recorder.line(position, System.nanoTime() - start);
+      }
+    }
+
+    if (!this.tks.isEmpty() && !(this.tks.get(this.tks.size() - 1) instanceof NewLineToken)) {
+      this.tks.add(new NewLineToken(), this.md.position());
+    }
+
+    return this.tks;
+  }
+
+  private void tokenizeBlock() {
+    long start = startRule();
+    if (endRule("tryTokenizeHeader", tryTokenizeHeader(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeCodeBlock", tryTokenizeCodeBlock(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeBlockQuote", tryTokenizeBlockQuote(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeHorizontalRule", tryTokenizeHorizontalRule(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeList", tryTokenizeList(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeHeaderAlt", tryTokenizeHeaderAlt(), start)) {
+      return;
+    }
+
+    start = startRule();
+    if (endRule("tryTokenizeNewLine", tryTokenizeNewLine(), start)) {
+      return;
+    }
+
+    start = startRule();
+    tokenizeCurrentLine();
+    endRule("tokenizeCurrentLine", true, start);
+  }
+
+  // With a recorder, startRule()/endRule() time a rule attempt; without one they're no-ops.
+  private long startRule() {
+    return this.recorder == null ? 0 : System.nanoTime();
+  }
+
+  private boolean endRule(String rule, boolean hit, long start) {
+    if (this.recorder != null) {
+      this.recorder.rule(rule, hit, System.nanoTime() - start);
+    }
+    return hit;
+  }
+
+  private boolean find(Matcher matcher, String rule) {
+    long start = startRule();
+    return endRule(rule, matcher.find(), start);
+  }
+
+  private static final Pattern HEADER_PATTERN = Pattern.compile("\\A(######|#####|####|###|##|#) ");
+
+  private boolean tryTokenizeHeader() {
+    Matcher matcher = HEADER_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    int hSize = matcher.group(1).length();
+    this.tks.add(new HeaderToken(hSize), this.md.position());
+    advance(hSize + 1); // header + space
+    tokenizeCurrentLine();
+    this.tks.add(new HorizontalRuleToken(), this.md.position());
+    this.tks.add(new NewLineToken(), this.md.position());
+
+    return true;
+  }
+
+  // IncludeCompiler finds code blocks with this too
+  static final Pattern CODEBLOCK_PATTERN = Pattern.compile("\\A```(.*?)\\s*\n");
+
+  private boolean tryTokenizeCodeBlock() {
+    Matcher matcher = CODEBLOCK_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    String lang = matcher.group(1) == null ? "" : matcher.group(1);
+
+    // code starts on the next line and runs to the next ```
+    int position = this.md.position();
+    int nextLine = this.lines.nextLineStart(position);
+    if (nextLine < 0 || nextLine >= this.md.limit()) { // no ending to code block
+      return false;
+    }
+    int codeStart = nextLine - position;
+
+    int fence = this.lines.nextFence(nextLine);
+    if (fence < 0) { // no ending to code block
+      return false;
+    }
+    int codeEnd = fence - position - 1;
+
+    // make sure we haven't deleted from this.md until this point, since we need to
+    // ensure there is an ending block. If there is no ending block, we would have
+    // returned false somewhere above, and we can try tokenizing a different token.
+
+    String code = this.md.subSequence(codeStart, codeEnd + 1).toString();
+    int start = this.md.position();
+    advance(codeEnd + 1 + 3); // 3 = ```
+    this.tks.add(new CodeBlockToken(lang, code), start);
+    this.tks.add(new NewLineToken(), this.md.position());
+
+    return true;
+  }
+
+  private static final Pattern BLOCKQUOTE_PATTERN = Pattern.compile("\\A(>(?: >)* ?).*$", Pattern.MULTILINE);
+
+  private boolean tryTokenizeBlockQuote() {
+    Matcher matcher = BLOCKQUOTE_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    int indent = (int) matcher.group(1).chars().filter(c -> c == '>').count();
+    this.tks.add(new BlockQuoteToken(indent), this.md.position());
+    advance(matcher.group(1).length());
+    tokenizeCurrentLine();
+
+    return true;
+  }
+
+  private static final Pattern HORIZONTAL_RULE_PATTERN = Pattern.compile("\\A(\\*{3,}[\\* ]*|-{3,}[- ]*)$",
+      Pattern.MULTILINE);
+
+  private boolean tryTokenizeHorizontalRule() {
+    Matcher matcher = HORIZONTAL_RULE_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    this.tks.add(new HorizontalRuleToken(), this.md.position());
+    this.tks.add(new NewLineToken(), this.md.position());
+    if (matcher.group(1).length() + 1 < this.md.length()) {
+      advance(matcher.group(1).length() + 1); // 1 for newl
+    } else {
+      advance(this.md.length());
+    }
+
+    return true;
+  }
+
+  private static final Pattern LIST_PATTERN = Pattern.compile("\\A *(?:([0-9]\\.)|(\\*|-)) ");
+
+  private boolean tryTokenizeList() {
+    Matcher matcher = LIST_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    int spaces = 0;
+    while (this.md.charAt(spaces) == ' ') {
+      spaces += 1;
+    }
+
+    switch (this.md.charAt(spaces)) {
+      // un-ordered
+      case '*':
+      case '-':
+        this.tks.add(new ListItemToken(spaces / LIST_INDENT_SIZE, false, -1), this.md.position());
+        if (spaces + 2 < this.md.length()) {
+          advance(spaces + 2); // 2 = */- + space
+        } else {
+          advance(this.md.length());
+        }
+        break;
+
+      // ordered
+      default:
+        // only support one digit for now
+        this.tks.add(new ListItemToken(spaces / LIST_INDENT_SIZE, true, Integer.valueOf(this.md.charAt(spaces) + "")),
+            this.md.position());
+        if (spaces + 3 < this.md.length()) {
+          advance(spaces + 3); // 3 = digit + period + space
+        } else {
+          advance(this.md.length());
+        }
+    }
+
+    tokenizeCurrentLine();
+
+    return true;
+  }
+
+  // A non-empty line followed by a line that is only a run of = (h1) or - (h2), optionally
+  // with trailing spaces, checked against the line index so the lines aren't scanned twice
+  private boolean tryTokenizeHeaderAlt() {
+    int position = this.md.position();
+    int nextLine = this.lines.nextLineStart(position);
+    if (nextLine < 0 || nextLine == position + 1 || nextLine >= this.md.limit()) {
+      return false;
+    }
+    char underline = this.md.charAt(nextLine - position);
+    if (underline != '=' && underline != '-') {
+      return false;
+    }
+    int otherTerminator = this.lines.nextOtherTerminator(position);
+    if (otherTerminator >= 0 && otherTerminator < nextLine - 1) {
+      return false;
+    }
+
+    // the underline runs to its '\n', or to the end of input on the last line
+    int underlineEnd = this.lines.nextLineStart(nextLine);
+    underlineEnd = underlineEnd < 0 ? this.md.limit() : underlineEnd - 1;
+    int i = nextLine;
+    while (i < underlineEnd && this.md.charAt(i - position) == underline) {
+      i++;
+    }
+    while (i < underlineEnd && this.md.charAt(i - position) == ' ') {
+      i++;
+    }
+    if (i < underlineEnd) {
+      return false;
+    }
+
+    this.tks.add(new HeaderToken(underline == '=' ? 1 : 2), position);
+    tokenizeCurrentLine();
+    advance(underlineEnd - this.md.position()); // ---/=== line, leaving its newline
+    this.tks.add(new HorizontalRuleToken(), this.md.position());
+    this.tks.add(new NewLineToken(), this.md.position());
+
+    return true;
+  }
+
+  private static final Pattern NEW_LINE_PATTERN = Pattern.compile("\\A\\n");
+
+  private boolean tryTokenizeNewLine() {
+    Matcher matcher = NEW_LINE_PATTERN.matcher(this.md);
+    if (!matcher.find()) {
+      return false;
+    }
+
+    this.tks.add(new NewLineToken(), this.md.position());
+    advance(1);
+
+    return true;
+  }
+
+  private static final Pattern BOLD_AND_ITALIC_PATTERN = Pattern.compile("\\A(\\*{3}[^\\*]+?\\*{3}|_{3}[^_]+?_{3})");
+  private static final Pattern BOLD_PATTERN = Pattern.compile("\\A(\\*{2}[^\\*]+?\\*{2}|_{2}[^_]+?_{2})");
+  private static final Pattern ITALIC_PATTERN = Pattern.compile("\\A(\\*[^\\*]+?\\*|_[^_]+?_)");
+  private static final Pattern IMAGE_PATTERN = Pattern.compile("\\A!\\[(.*)\\]\\((.*)\\)");
+  private static final Pattern LINK_PATTERN = Pattern.compile("\\A\\[(.*)\\]\\((.*)\\)");
+  private static final Pattern CODE_INLINE_PATTERN = Pattern.compile("\\A`(.+?)`([a-z]*)");
+
+  private void tokenizeCurrentLine() {
+    if (this.md.isEmpty()) {
+      return;
+    }
+    if (this.md.charAt(0) == '\n') { // already at the end of current line
+      this.tks.add(new NewLineToken(), this.md.position());
+      advance(1);
+      return;
+    }
+
+    // find current line
+    CharBuffer line = null;
+    int nextLine = this.lines.nextLineStart(this.md.position());
+    int lineEnd = nextLine < 0 ? this.md.length() : nextLine - this.md.position();
+    if (lineEnd == this.md.length()) {
+      line = this.md;
+    } else {
+      line = this.md.subSequence(0, lineEnd);
+    }
+    advance(line.length());
+
+    // keep track of current substring
+    StringBuilder currStr = new StringBuilder();
+
+    while (!line.isEmpty()) {
+      this.budget.tick();
+
+      // == bold and italic ==
+      Matcher matcher = BOLD_AND_ITALIC_PATTERN.matcher(line);
+      if (find(matcher, "BOLD_AND_ITALIC_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new TextToken(matcher.group(1).replace("*", "").replace("_", ""), true, true), line.position());
+        line = line.subSequence(matcher.group(1).length(), line.length());
+
+        continue;
+      }
+
+      // == bold ==
+      matcher = BOLD_PATTERN.matcher(line);
+      if (find(matcher, "BOLD_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new TextToken(matcher.group(1).replace("*", "").replace("_", ""), true, false), line.position());
+        line = line.subSequence(matcher.group(1).length(), line.length());
+
+        continue;
+      }
+
+      // == italic ==
+      matcher = ITALIC_PATTERN.matcher(line);
+      if (find(matcher, "ITALIC_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new TextToken(matcher.group(1).replace("*", "").replace("_", ""), false, true), line.position());
+        line = line.subSequence(matcher.group(1).length(), line.length());
+
+        continue;
+      }
+
+      // == image ==
+      matcher = IMAGE_PATTERN.matcher(line);
+      if (find(matcher, "IMAGE_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new ImageToken(matcher.group(1), matcher.group(2)), line.position());
+        line = line.subSequence(matcher.group(1).length() + matcher.group(2).length() + 5, line.length()); // 5 = ![]()
+
+        continue;
+      }
+
+      // == link ==
+      matcher = LINK_PATTERN.matcher(line);
+      if (find(matcher, "LINK_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new LinkToken(matcher.group(1), matcher.group(2)), line.position());
+        line = line.subSequence(matcher.group(1).length() + matcher.group(2).length() + 4, line.length()); // 4 = []()
+
+        continue;
+      }
+
+      // == code ==
+      matcher = CODE_INLINE_PATTERN.matcher(line);
+      if (find(matcher, "CODE_INLINE_PATTERN")) {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        String code = matcher.group(1);
+        String lang = matcher.group(2) == null ? "" : matcher.group(2);
+
+        this.tks.add(new CodeInlineToken(lang, code), line.position());
+        line = line.subSequence(code.length() + lang.length() + 2, line.length()); // 2 = ``
+
+        continue;
+      }
+
+      // == new line ==
+      if (line.charAt(0) == '\n') {
+        if (!currStr.isEmpty()) {
+          pushText(currStr, line.position());
+        }
+
+        this.tks.add(new NewLineToken(), line.position());
+        break;
+      }
+
+      currStr.append(line.charAt(0));
+      line = line.subSequence(1, line.length());
+    }
+
+    if (!currStr.isEmpty()) {
+      pushText(currStr, line.position());
+    }
+  }
+
+  // flushes plain text that ends at offset
+  private void pushText(StringBuilder currStr, int offset) {
+    this.tks.add(new TextToken(currStr.toString(), false, false), offset - currStr.length());
+    currStr.setLength(0);
+  }
+
+  // md is a CharBuffer so consuming input is an O(1) view instead of copying the rest of the document
+  private void advance(int chars) {
+    this.md = this.md.subSequence(chars, this.md.length());
+  }
+}
+
+class Parser {
+  private List<Lexer.Token> tks;
+  private int tksStart;
+  private NodeSink sink;
+  private int root;
+  private CompileBudget budget;
+
+  // where the last error was located, see locate()
+  private int locatedOffset;
+  private int line = 1;
+  private int lineStart;
+
+  // The parser builds through a sink of int node ids, so the same grammar can produce
+  // either the record tree below or a FlatAst arena. Kinds are the FlatAst constants.
+  interface NodeSink {
+    int node(int kind, int value, String a, String b);
+
+    void append(int parent, int child);
+  }
+
+  static class RecordSink implements NodeSink {
+    private final List<ASTNode> nodes = new ArrayList<>();
+
+    @Override
+    public int node(int kind, int value, String a, String b) {
+      ASTNode node;
+      switch (kind) {
+        case FlatAst.ROOT:
+          node = new ASTRootNode(new ArrayList<>());
+          break;
+        case FlatAst.HEADER:
+          node = new ASTHeaderNode(value, new ArrayList<>());
+          break;
+        case FlatAst.CODE_BLOCK:
+          node = new ASTCodeBlockNode(a, b);
+          break;
+        case FlatAst.CODE_INLINE:
+          node = new ASTCodeInlineNode(a, b);
+          break;
+        case FlatAst.QUOTE:
+          node = new ASTQuoteNode(new ArrayList<>());
+          break;
+        case FlatAst.QUOTE_ITEM:
+          node = new ASTQuoteItemNode(new ArrayList<>());
+          break;
+        case FlatAst.PARAGRAPH:
+          node = new ASTParagraphNode(new ArrayList<>());
+          break;
+        case FlatAst.TEXT:
+          node = new ASTTextNode(a, (value & FlatAst.BOLD) != 0, (value & FlatAst.ITALIC) != 0);
+          break;
+        case FlatAst.HORIZONTAL_RULE:
+          node = new ASTHorizontalRuleNode();
+          break;
+        case FlatAst.IMAGE:
+          node = new ASTImageNode(a, b);
+          break;
+        case FlatAst.LINK:
+          node = new ASTLinkNode(a, b);
+          break;
+        case FlatAst.LIST:
+          node = new ASTListNode(value != 0, new ArrayList<>());
+          break;
+        case FlatAst.LIST_ITEM:
+          node = new ASTListItemNode(new ArrayList<>());
+          break;
+        default:
+          throw new RuntimeException("Invalid node kind: " + kind);
+      }
+      this.nodes.add(node);
+      return this.nodes.size() - 1;
+    }
+
+    @Override
+    public void append(int parent, int child) {
+      this.nodes.get(parent).children().add(this.nodes.get(child));
+    }
+  }
+
+  public interface ASTNode {
+    // records with a children component override this with their accessor
+    default List<ASTNode> children() {
+      return List.of();
+    }
+  }
+
+  public static record ASTRootNode(List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTHeaderNode(int size, List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTCodeBlockNode(String lang, String code) implements ASTNode {
+  }
+
+  public static record ASTCodeInlineNode(String lang, String code) implements ASTNode {
+  }
+
+  public static record ASTQuoteNode(List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTQuoteItemNode(List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTParagraphNode(List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTTextNode(String text, boolean bold, boolean italic) implements ASTNode {
+  }
+
+  public static record ASTHorizontalRuleNode() implements ASTNode {
+  }
+
+  public static record ASTImageNode(String alt, String src) implements ASTNode {
+  }
+
+  public static record ASTLinkNode(String text, String href) implements ASTNode {
+  }
+
+  public static record ASTListNode(boolean ordered, List<ASTNode> children) implements ASTNode {
+  }
+
+  public static record ASTListItemNode(List<ASTNode> children) implements ASTNode {
+  }
+
+  public Parser(List<Lexer.Token> tks) {
+    this(tks, CompileBudget.unlimited());
+  }
+
+  public Parser(List<Lexer.Token> tks, CompileBudget budget) {
+    this.tks = tks;
+    this.tksStart = 0;
+    this.budget = budget;
+  }
+
+  public ASTRootNode parse() {
+    RecordSink sink = new RecordSink();
+    parseInto(sink);
+    return (ASTRootNode) sink.nodes.get(this.root);
+  }
+
+  public FlatAst parseFlat() {
+    FlatAst ast = new FlatAst(this.tks.size() + 1);
+    parseInto(ast.sink());
+    return ast;
+  }
+
+  private void parseInto(NodeSink sink) {
+    this.sink = sink;
+    this.tksStart = 0;
+    this.root = sink.node(FlatAst.ROOT, 0, null, null);
+    this.budget.checkTokens(this.tks.size());
+
+    while (this.tksStart < this.tks.size()) {
+      this.budget.tick();
+      int start = this.tksStart;
+      try {
+        parseBlock();
+      } catch (CompileException e) {
+        if (!this.budget.getOptions().recover()) {
+          throw e;
+        }
+        this.budget.report(e);
+        skipLine(start);
+      }
+    }
+  }
+
+  private void parseBlock() {
+    if (peek(Lexer.HeaderToken.class)) {
+      parseHeader();
+    } else if (peek(Lexer.CodeBlockToken.class)) {
+      parseCodeBlock();
+    } else if (peek(Lexer.BlockQuoteToken.class)) {
+      parseBlockQuote();
+    } else if (peek(Lexer.HorizontalRuleToken.class)) {
+      parseHorizontalRule();
+    } else if (peek(Lexer.ListItemToken.class)) {
+      parseList();
+    } else if (peek(Lexer.ImageToken.class)) {
+      parseImage();
+    } else if (peekAny(INLINE_TOKENS)) {
+      parseParagraph();
+    } else if (peek(Lexer.NewLineToken.class)) {
+      consume(Lexer.NewLineToken.class);
+    } else {
+      throw unexpected("Unable to parse token");
+    }
+  }
+
+  // drops the rest of the line a bad block failed on (the block itself is left unattached)
+  // so parsing can resume with the next one
+  private void skipLine(int start) {
+    this.tksStart = Math.max(this.tksStart, start);
+    while (this.tksStart < this.tks.size() && !(this.tks.get(this.tksStart) instanceof Lexer.NewLineToken)) {
+      this.tksStart++;
+    }
+    this.tksStart = Math.min(this.tksStart + 1, this.tks.size());
+  }
+
+  private int node(int kind) {
+    return this.sink.node(kind, 0, null, null);
+  }
+
+  private void parseHeader() {
+    Lexer.HeaderToken token = consume(Lexer.HeaderToken.class);
+    int header = this.sink.node(FlatAst.HEADER, token.size(), null, null);
+    parseInline(header);
+    this.sink.append(this.root, header);
+  }
+
+  private void parseCodeBlock() {
+    Lexer.CodeBlockToken token = consume(Lexer.CodeBlockToken.class);
+    consume(Lexer.NewLineToken.class);
+    this.sink.append(this.root, this.sink.node(FlatAst.CODE_BLOCK, 0, token.lang(), token.code()));
+  }
+
+  private void parseBlockQuote() {
+    // quote block for each indent seen so far, indexed by indent (-1 if none)
+    int[] blockIndentMap = new int[0];
+
+    // add root quote block
+    int rootIndent = consume(Lexer.BlockQuoteToken.class).indent();
+    this.budget.checkDepth(rootIndent);
+    int rootBlock = node(FlatAst.QUOTE);
+    this.sink.append(rootBlock, parseQuoteItem());
+    blockIndentMap = putQuoteBlock(blockIndentMap, rootIndent, rootBlock);
+
+    while (peek(Lexer.BlockQuoteToken.class)) {
+      this.budget.tick();
+      Lexer.BlockQuoteToken block = consume(Lexer.BlockQuoteToken.class);
+      this.budget.checkDepth(block.indent());
+      if (peek(Lexer.NewLineToken.class)) {
+        consume(Lexer.NewLineToken.class);
+        continue;
+      }
+
+      int blockNode = getQuoteBlock(blockIndentMap, block.indent());
+      if (blockNode < 0) {
+        blockNode = node(FlatAst.QUOTE);
+        this.sink.append(blockNode, parseQuoteItem());
+        blockIndentMap = putQuoteBlock(blockIndentMap, block.indent(), blockNode);
+        int blockParent = getQuoteBlock(blockIndentMap, block.indent() - 1);
+        this.sink.append(blockParent >= 0 ? blockParent : rootBlock, blockNode);
+      } else {
+        this.sink.append(blockNode, parseQuoteItem());
+      }
+    }
+
+    this.sink.append(this.root, rootBlock);
+  }
+
+  private static int getQuoteBlock(int[] blocks, int indent) {
+    return indent >= 0 && indent < blocks.length ? blocks[indent] : -1;
+  }
+
+  private static int[] putQuoteBlock(int[] blocks, int indent, int block) {
+    if (indent >= blocks.length) {
+      int oldLength = blocks.length;
+      blocks = Arrays.copyOf(blocks, Math.max(indent + 1, oldLength * 2));
+      Arrays.fill(blocks, oldLength, blocks.length, -1);
+    }
+    blocks[indent] = block;
+    return blocks;
+  }
+
+  private int parseQuoteItem() {
+    int item = node(FlatAst.QUOTE_ITEM);
+    parseInlineBlockQuote(item);
+    return item;
+  }
+
+  private void parseHorizontalRule() {
+    consume(Lexer.HorizontalRuleToken.class);
+    consume(Lexer.NewLineToken.class);
+    this.sink.append(this.root, node(FlatAst.HORIZONTAL_RULE));
+  }
+
+  private static class ListStackItem {
+    final int node;
+    final int indent;
+    int lastItem;
+
+    ListStackItem(int node, int indent, int lastItem) {
+      this.node = node;
+      this.indent = indent;
+      this.lastItem = lastItem;
+    }
+  }
+
+  private void parseList() {
+    // create root
+    int rootList = this.sink.node(FlatAst.LIST, consume(Lexer.ListItemToken.class).ordered() ? 1 : 0, null, null);
+
+    // stack of last seen nodes
+    Deque<ListStackItem> listStack = new ArrayDeque<>();
+    listStack.push(new ListStackItem(rootList, 0, parseListItem(rootList)));
+
+    while (peek(Lexer.ListItemToken.class)) {
+      this.budget.tick();
+      Lexer.ListItemToken currToken = consume(Lexer.ListItemToken.class);
+      int currIndent = Math.min(listStack.peek().indent + 1, currToken.indent()); // only allow 1 additional level at
+                                                                                  // a time
+      int lastIndent = listStack.peek().indent;
+      if (currIndent > lastIndent) { // deeper indentation
+        // create new node, appended to last item of top (of stack) node
+        int node = this.sink.node(FlatAst.LIST, currToken.ordered() ? 1 : 0, null, null);
+        int item = parseListItem(node);
+        this.sink.append(listStack.peek().lastItem, node);
+        listStack.push(new ListStackItem(node, currIndent, item));
+        this.budget.checkDepth(listStack.size());
+      } else {
+        if (currIndent < lastIndent) { // lost indentation
+          // pop from stack until we find current level
+          while (listStack.peek().indent > currIndent) {
+            listStack.pop();
+          }
+        }
+        listStack.peek().lastItem = parseListItem(listStack.peek().node);
+      }
+    }
+
+    this.sink.append(this.root, rootList);
+  }
+
+  private int parseListItem(int list) {
+    int item = node(FlatAst.LIST_ITEM);
+    parseInline(item);
+    this.sink.append(list, item);
+    return item;
+  }
+
+  private void parseImage() {
+    Lexer.ImageToken token = consume(Lexer.ImageToken.class);
+    consume(Lexer.NewLineToken.class);
+    this.sink.append(this.root, this.sink.node(FlatAst.IMAGE, 0, token.alt(), token.src()));
+  }
+
+  private void parseParagraph() {
+    int paragraph = node(FlatAst.PARAGRAPH);
+    parseInline(paragraph);
+    this.sink.append(this.root, paragraph);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final List<Class<? extends Lexer.Token>> INLINE_TOKENS = List.of(
+      Lexer.TextToken.class,
+      Lexer.CodeInlineToken.class,
+      Lexer.LinkToken.class);
+
+  private void parseInline(int parent) {
+    while (peekAny(INLINE_TOKENS) || (peek(Lexer.NewLineToken.class) && peekAny(2, INLINE_TOKENS))) {
+      if (peek(Lexer.NewLineToken.class)) {
+        consume(Lexer.NewLineToken.class);
+        this.sink.append(parent, this.sink.node(FlatAst.TEXT, 0, " ", null));
+      }
+
+      this.sink.append(parent, parseInlineSingle());
+    }
+    consume(Lexer.NewLineToken.class);
+  }
+
+  private void parseInlineBlockQuote(int parent) {
+    while (peekAny(INLINE_TOKENS)
+        || (peek(Lexer.NewLineToken.class) && peek(2, Lexer.BlockQuoteToken.class) && peekAny(3, INLINE_TOKENS))) {
+      if (peek(Lexer.NewLineToken.class)) {
+        consume(Lexer.NewLineToken.class);
+        consume(Lexer.BlockQuoteToken.class);
+        this.sink.append(parent, this.sink.node(FlatAst.TEXT, 0, " ", null));
+      }
+
+      this.sink.append(parent, parseInlineSingle());
+    }
+    consume(Lexer.NewLineToken.class);
+  }
+
+  private int parseInlineSingle() {
+    if (peek(Lexer.TextToken.class)) {
+      Lexer.TextToken token = consume(Lexer.TextToken.class);
+      int flags = (token.bold() ? FlatAst.BOLD : 0) | (token.italic() ? FlatAst.ITALIC : 0);
+      return this.sink.node(FlatAst.TEXT, flags, token.text(), null);
+    } else if (peek(Lexer.CodeInlineToken.class)) {
+      Lexer.CodeInlineToken token = consume(Lexer.CodeInlineToken.class);
+      return this.sink.node(FlatAst.CODE_INLINE, 0, token.lang(), token.code());
+    } else if (peek(Lexer.LinkToken.class)) {
+      Lexer.LinkToken token = consume(Lexer.LinkToken.class);
+      return this.sink.node(FlatAst.LINK, 0, token.text(), token.href());
+    } else {
+      throw unexpected("Expected text, inline code or a link");
+    }
+  }
+
+  private boolean peekAny(int depth, List<Class<? extends Lexer.Token>> tokenTypes) {
+    for (Class<? extends Lexer.Token> tokenType : tokenTypes) {
+      if (peek(depth, tokenType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean peekAny(List<Class<? extends Lexer.Token>> tokenTypes) {
+    return peekAny(1, tokenTypes);
+  }
+
+  private boolean peek(int depth, Class<? extends Lexer.Token> tokenType) {
+    int index = this.tksStart + depth - 1;
+    if (index >= this.tks.size()) {
+      return false;
+    }
+    return tokenType.isInstance(this.tks.get(index));
+  }
+
+  private boolean peek(Class<? extends Lexer.Token> tokenType) {
+    return peek(1, tokenType);
+  }
+
+  private <T extends Lexer.Token> T consume(Class<T> tokenType) {
+    if (!peek(tokenType)) {
+      throw unexpected("Expected " + tokenType.getSimpleName());
+    }
+
+    Lexer.Token token = this.tks.get(this.tksStart);
+    this.tksStart += 1;
+    return tokenType.cast(token);
+  }
+
+  // Describes the next token and where it is. Only a bounded excerpt goes in the message, so
+  // an error costs the same however large the document is.
+  private CompileException unexpected(String message) {
+    int index = this.tksStart;
+    String found = CompileException.describe(index < this.tks.size() ? this.tks.get(index) : null);
+    int offset = -1;
+    if (this.tks instanceof Lexer.TokenList list) {
+      offset = index < list.size() ? list.offsetOf(index) : list.getSource().length();
+    }
+    if (offset < 0) {
+      StringBuilder context = new StringBuilder("  after");
+      for (int i = Math.max(0, index - 3); i < index; i++) {
+        context.append(' ').append(CompileException.describe(this.tks.get(i)));
+      }
+      return new CompileException(message, -1, -1, found, context.toString());
+    }
+
+    String source = ((Lexer.TokenList) this.tks).getSource();
+    locate(source, offset);
+    int column = offset - this.lineStart + 1;
+    return new CompileException(message, this.line, column, found,
+        CompileException.context(source, this.lineStart, column));
+  }
+
+  // moves the line count forward to offset; errors come in source order, so locating all of
+  // them in recovery mode is a single pass over the source
+  private void locate(String source, int offset) {
+    if (offset < this.locatedOffset) {
+      this.locatedOffset = 0;
+      this.line = 1;
+      this.lineStart = 0;
+    }
+    for (int i = this.locatedOffset; i < offset; i++) {
+      if (source.charAt(i) == '\n') {
+        this.line++;
+        this.lineStart = i + 1;
+      }
+    }
+    this.locatedOffset = offset;
+  }
+}
+
+class CodeGen {
+  private Parser.ASTRootNode ast;
+  private StringBuilder html;
+  private CompileBudget budget;
+  // when set, html is only a scratch buffer that gets flushed into out as it fills up
+  private Utf8Output out;
+  private int flushed;
+
+  private static final int FLUSH_THRESHOLD = 8192;
+
+  public CodeGen(Parser.ASTRootNode ast) {
+    this(ast, CompileBudget.unlimited());
+  }
+
+  public CodeGen(Parser.ASTRootNode ast, CompileBudget budget) {
+    this.ast = ast;
+    this.html = new StringBuilder();
+    this.budget = budget;
+  }
+
+  public String gen() {
+    genAll();
+    return this.html.toString();
+  }
+
+  // writes the html into out as it goes instead of building it as one String
+  public void genTo(Utf8Output out) {
+    this.out = out;
+    genAll();
+    flush();
+  }
+
+  private void genAll() {
+    for (Parser.ASTNode node : this.ast.children()) {
+      this.budget.tick();
+      this.budget.checkOutput(this.flushed + this.html.length());
+      if (this.out != null && this.html.length() >= FLUSH_THRESHOLD) {
+        flush();
+      }
+
+      if (node instanceof Parser.ASTHeaderNode) {
+        this.html.append(genHeader((Parser.ASTHeaderNode) node));
+      } else if (node instanceof Parser.ASTCodeBlockNode) {
+        this.html.append(genCodeBlock((Parser.ASTCodeBlockNode) node));
+      } else if (node instanceof Parser.ASTQuoteNode || node instanceof Parser.ASTListNode) {
+        genNested(node);
+      } else if (node instanceof Parser.ASTHorizontalRuleNode) {
+        this.html.append(genHorizontalRule((Parser.ASTHorizontalRuleNode) node));
+      } else if (node instanceof Parser.ASTImageNode) {
+        this.html.append(genImage((Parser.ASTImageNode) node));
+      } else if (node instanceof Parser.ASTLinkNode) {
+        this.html.append(genLink((Parser.ASTLinkNode) node));
+      } else if (node instanceof Parser.ASTCodeInlineNode) {
+        this.html.append(genCodeInline((Parser.ASTCodeInlineNode) node));
+      } else if (node instanceof Parser.ASTParagraphNode) {
+        this.html.append(genParagraph((Parser.ASTParagraphNode) node));
+      } else {
+        throw new RuntimeException("Invalid node: " + node);
+      }
+    }
+    this.budget.checkOutput(this.flushed + this.html.length());
+  }
+
+  private void flush() {
+    this.out.append(this.html);
+    this.flushed += this.html.length();
+    this.html.setLength(0);
+  }
+
+  private String genHeader(Parser.ASTHeaderNode node) {
+    return MessageFormat.format("<h{0}>{1}</h{0}>", node.size(), genLine(node.children()));
+  }
+
+  private String genCodeBlock(Parser.ASTCodeBlockNode node) {
+    return MessageFormat.format("<pre><code class=\"{0}\">{1}</code></pre>", escapeHtml(node.lang()), node.code());
+  }
+
+  private record NestedFrame(Parser.ASTNode node, Iterator<Parser.ASTNode> children) {
+  }
+
+  // Lists and quotes are walked with an explicit stack and written straight into this.html,
+  // so deep nesting neither overflows the call stack nor copies inner html at every level.
+  private void genNested(Parser.ASTNode root) {
+    Deque<NestedFrame> stack = new ArrayDeque<>();
+    this.html.append(openTag(root));
+    stack.push(new NestedFrame(root, root.children().iterator()));
+
+    while (!stack.isEmpty()) {
+      this.budget.tick();
+      this.budget.checkOutput(this.flushed + this.html.length());
+      if (this.out != null && this.html.length() >= FLUSH_THRESHOLD) {
+        flush();
+      }
+      NestedFrame frame = stack.peek();
+      if (!frame.children().hasNext()) {
+        this.html.append(closeTag(frame.node()));
+        stack.pop();
+        continue;
+      }
+
+      Parser.ASTNode child = frame.children().next();
+      if (frame.node() instanceof Parser.ASTListNode) {
+        if (!(child instanceof Parser.ASTListItemNode)) {
+          throw new RuntimeException("Invalid child of list node: " + child);
+        }
+        this.html.append(openTag(child));
+        stack.push(new NestedFrame(child, child.children().iterator()));
+      } else if (frame.node() instanceof Parser.ASTListItemNode) {
+        if (child instanceof Parser.ASTListNode) {
+          this.html.append(openTag(child));
+          stack.push(new NestedFrame(child, child.children().iterator()));
+        } else {
+          this.html.append(genLine(List.of(child)));
+        }
+      } else if (child instanceof Parser.ASTQuoteNode) {
+        this.html.append(openTag(child));
+        stack.push(new NestedFrame(child, child.children().iterator()));
+      } else if (child instanceof Parser.ASTQuoteItemNode) {
+        this.html.append("<p>" + genLine(child.children()) + "</p>");
+      } else {
+        throw new RuntimeException("Invalid child node: " + child);
+      }
+    }
+  }
+
+  private String openTag(Parser.ASTNode node) {
+    if (node instanceof Parser.ASTListNode) {
+      return ((Parser.ASTListNode) node).ordered() ? "<ol>" : "<ul>";
+    }
+    return node instanceof Parser.ASTListItemNode ? "<li>" : "<blockquote>";
+  }
+
+  private String closeTag(Parser.ASTNode node) {
+    if (node instanceof Parser.ASTListNode) {
+      return ((Parser.ASTListNode) node).ordered() ? "</ol>" : "</ul>";
+    }
+    return node instanceof Parser.ASTListItemNode ? "</li>" : "</blockquote>";
+  }
+
+  private String genHorizontalRule(Parser.ASTHorizontalRuleNode node) {
+    return "<hr>";
+  }
+
+  private String genImage(Parser.ASTImageNode node) {
+    return MessageFormat.format("<img alt=\"{0}\" src=\"{1}\"/>", escapeHtml(node.alt()), escapeHtml(node.src()));
+  }
+
+  private String genLink(Parser.ASTLinkNode node) {
+    return MessageFormat.format("<a href=\"{0}\">{1}</a>", escapeHtml(node.href()), escapeHtml(node.text()));
+  }
+
+  private String genCodeInline(Parser.ASTCodeInlineNode node) {
+    return MessageFormat.format("<code class=\"{0}\">{1}</code>", escapeHtml(node.lang()), node.code());
+  }
+
+  private String genParagraph(Parser.ASTParagraphNode node) {
+    return "<p>" + genLine(node.children()) + "</p>";
+  }
+
+  private String genLine(List<Parser.ASTNode> nodes) {
+    StringBuilder html = new StringBuilder();
+
+    for (Parser.ASTNode node : nodes) {
+      if (node instanceof Parser.ASTLinkNode) {
+        html.append(genLink((Parser.ASTLinkNode) node));
+      } else if (node instanceof Parser.ASTCodeInlineNode) {
+        html.append(genCodeInline((Parser.ASTCodeInlineNode) node));
+      } else if (node instanceof Parser.ASTTextNode) {
+        html.append(genText((Parser.ASTTextNode) node));
+      } else {
+        throw new RuntimeException("Invalid node: " + node);
+      }
+    }
+
+    return html.toString();
+  }
+
+  private String genText(Parser.ASTTextNode node) {
+    StringBuilder html = new StringBuilder();
+    if (node.italic()) {
+      html.append("<i>");
+    }
+    if (node.bold()) {
+      html.append("<b>");
+    }
+    html.append(escapeHtml(node.text()));
+    if (node.bold()) {
+      html.append("</b>");
+    }
+    if (node.italic()) {
+      html.append("</i>");
+    }
+    return html.toString();
+  }
+
+  private static final Map<Character, String> ESCAPE_HTML_MAP = Map.of(
+      '<', "&lt;",
+      '>', "&gt;",
+      '&', "&amp;",
+      '"', "&quot;");
+
+  static String escapeHtml(String str) {
+    StringBuilder sb = null;
+
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      String replacement = ESCAPE_HTML_MAP.get(ch);
+
+      if (replacement != null) {
+        if (sb == null) {
+          sb = new StringBuilder(str.length() + 20); // extra capacity since string length will go up
+          sb.append(str, 0, i); // copy everything up to first match
+        }
+        sb.append(replacement);
+      } else if (sb != null) {
+        sb.append(ch);
+      }
+    }
+
+    // if no replacements were needed, return original
+    return sb == null ? str : sb.toString();
+  }
+}
\ No newline at end of file
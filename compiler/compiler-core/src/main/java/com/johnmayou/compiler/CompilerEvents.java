@@ -0,0 +1,100 @@
+package com.johnmayou.compiler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+// JDK Flight Recorder events for the compile pipeline. Events are only committed while a
+// recording with them enabled is running, and only when slower than their threshold
+// (overridable in the .jfc settings), so they can stay on in production.
+class CompilerEvents {
+  @Name("markdown.Compile")
+  @Label("Markdown Compile")
+  @Category("Markdown")
+  @Description("A full Compiler.compile call, including ones that failed")
+  @Threshold("20 ms")
+  @StackTrace(false)
+  static class Compile extends Event {
+    @Label("Input Length")
+    @Description("In chars")
+    int inputLength;
+
+    @Label("Output Length")
+    @Description("In chars")
+    int outputLength;
+
+    @Label("Token Count")
+    int tokenCount = -1;
+
+    @Label("Node Count")
+    int nodeCount = -1;
+
+    @Label("Outcome")
+    @Description("ok, the CompileLimitException limit that stopped the compile, or the exception it failed with")
+    String outcome;
+
+    @Label("Fragment Cache")
+    @Description("Compiled block by block through a FragmentCache")
+    boolean fragmentCache;
+
+    @Label("Lex Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long lexDuration;
+
+    @Label("Parse Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseDuration;
+
+    @Label("Gen Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long genDuration;
+  }
+
+  @Name("markdown.Stage")
+  @Label("Markdown Compile Stage")
+  @Category("Markdown")
+  @Description("One of the lex, parse and gen stages")
+  @Threshold("10 ms")
+  @StackTrace(false)
+  static class Stage extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Input Length")
+    @Description("In chars")
+    int inputLength = -1;
+
+    @Label("Output Length")
+    @Description("In chars")
+    int outputLength = -1;
+
+    @Label("Token Count")
+    int tokenCount = -1;
+
+    @Label("Node Count")
+    int nodeCount = -1;
+  }
+
+  // only called for events about to be committed, so it doesn't matter that it walks the tree
+  static int countNodes(Parser.ASTNode root) {
+    int count = 0;
+    Deque<Parser.ASTNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      Parser.ASTNode node = stack.pop();
+      count++;
+      for (Parser.ASTNode child : node.children()) {
+        stack.push(child);
+      }
+    }
+    return count;
+  }
+}
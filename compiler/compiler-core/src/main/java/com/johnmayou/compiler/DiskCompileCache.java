@@ -0,0 +1,450 @@
+package com.johnmayou.compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Content-addressed cache of compiled html, persisted across JVM restarts. Keys cover the
+// markdown, the compile options and the bytecode of every class on the render path; when that
+// bytecode can't be read (e.g. in a native image) the cache is disabled rather than risk
+// serving html from another build.
+//
+// cache.seg is append-only: [32 byte key][int length][utf-8 html] per record.
+// cache.idx is a memory-mapped open-addressing table of (key prefix, offset, length)
+// slots. If the index doesn't match the segment (e.g. after a crash) it is rebuilt
+// by scanning the segment.
+//
+// One process at a time: the writer state (segment length, entry count) lives in this object,
+// so the constructor takes an exclusive lock on cache.lock and fails if another cache holds it.
+public class DiskCompileCache implements Closeable {
+  private static final int INDEX_MAGIC = 0x4d444358; // MDCX
+  private static final int INDEX_HEADER_SIZE = 32; // magic, slots, entries, pad, segment length, reserved
+  private static final int SLOT_SIZE = 24; // key prefix, offset + 1, length, pad
+  private static final int KEY_SIZE = 32;
+  private static final int RECORD_HEADER_SIZE = KEY_SIZE + 4;
+  private static final int MIN_SLOTS = 1 << 12;
+  private static final int MAX_REMAPS = 2;
+  private static final List<Class<?>> RENDER_PATH = List.of(Compiler.class, Lexer.class, Parser.class,
+      CodeGen.class, LineIndex.class, FlatAst.class, FlatCodeGen.class, FragmentCache.class, CompileOptions.class,
+      CompileBudget.class);
+
+  private final Path segmentPath;
+  private final Path indexPath;
+  private final long maxBytes;
+  private final byte[] fingerprint; // null when the compiler's classes couldn't be read
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private final FileChannel lockChannel;
+  private final FileLock fileLock;
+  private FileChannel segment;
+  private MappedByteBuffer segmentMap;
+  private MappedByteBuffer index;
+  private long segmentLength;
+  private int slotCount;
+  private int entries;
+
+  public DiskCompileCache(Path dir, long maxBytes) throws IOException {
+    if (maxBytes <= 0 || maxBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maxBytes must be between 1 and " + Integer.MAX_VALUE);
+    }
+
+    Files.createDirectories(dir);
+    this.segmentPath = dir.resolve("cache.seg");
+    this.indexPath = dir.resolve("cache.idx");
+    this.maxBytes = maxBytes;
+    this.fingerprint = fingerprint();
+
+    this.lockChannel = FileChannel.open(dir.resolve("cache.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      this.fileLock = lockDir(dir);
+      this.segment = FileChannel.open(this.segmentPath,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.segmentLength = this.segment.size();
+      if (!loadIndex()) {
+        rebuildIndex(MIN_SLOTS);
+      }
+      mapSegment();
+    } catch (IOException | RuntimeException e) {
+      this.lockChannel.close(); // releases the lock too
+      if (this.segment != null) {
+        this.segment.close();
+      }
+      throw e;
+    }
+  }
+
+  private FileLock lockDir(Path dir) throws IOException {
+    FileLock held;
+    try {
+      held = this.lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      held = null; // locked by another cache in this JVM
+    }
+    if (held == null) {
+      throw new IOException("Compile cache " + dir + " is already open in another cache or process");
+    }
+    return held;
+  }
+
+  public String compile(Compiler compiler, String md) {
+    if (this.fingerprint == null) {
+      return compiler.compile(md);
+    }
+    byte[] key = key(md, compiler.getOptions());
+
+    ByteBuffer cached = get(key);
+    if (cached != null) {
+      this.hits.increment();
+      return StandardCharsets.UTF_8.decode(cached).toString();
+    }
+    this.misses.increment();
+
+    String html = compiler.compile(md);
+    try {
+      put(key, html.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return html;
+  }
+
+  // returns a read-only view into the mapped segment, or null on a miss
+  public ByteBuffer get(byte[] key) {
+    for (int remaps = 0; remaps <= MAX_REMAPS; remaps++) {
+      this.lock.readLock().lock();
+      try {
+        int slot = findSlot(key);
+        if (slot < 0) {
+          return null;
+        }
+
+        long offset = this.index.getLong(slotPosition(slot) + 8) - 1;
+        int length = this.index.getInt(slotPosition(slot) + 16);
+        long end = offset + RECORD_HEADER_SIZE + length;
+        if (offset < 0 || length < 0 || end > this.segmentLength) {
+          return null; // slot points outside the segment; no remap will bring it in
+        }
+        if (end <= this.segmentMap.limit()) {
+          if (!this.segmentMap.slice((int) offset, KEY_SIZE).equals(ByteBuffer.wrap(key))) {
+            return null; // key prefix collision
+          }
+          return this.segmentMap.slice((int) offset + RECORD_HEADER_SIZE, length).asReadOnlyBuffer();
+        }
+      } finally {
+        this.lock.readLock().unlock();
+      }
+      remapSegment();
+    }
+    return null; // puts keep outrunning the remaps; serve it as a miss
+  }
+
+  // Puts don't remap the segment; the first get of a record past the mapping does, once for
+  // every put since the last remap.
+  private void remapSegment() {
+    this.lock.writeLock().lock();
+    try {
+      if (this.segmentMap.limit() < this.segmentLength) {
+        mapSegment();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  public void put(byte[] key, byte[] html) throws IOException {
+    long recordSize = RECORD_HEADER_SIZE + (long) html.length;
+    if (recordSize > this.maxBytes / 2) {
+      return; // would be evicted by the next compaction anyway
+    }
+
+    this.lock.writeLock().lock();
+    try {
+      if (findSlot(key) >= 0) {
+        return;
+      }
+      if (this.segmentLength + recordSize > this.maxBytes) {
+        compact();
+      }
+      if ((this.entries + 1) * 2 > this.slotCount) {
+        rebuildIndex(this.slotCount * 2);
+      }
+
+      ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+      record.put(key).putInt(html.length).put(html).flip();
+      long offset = this.segmentLength;
+      while (record.hasRemaining()) {
+        this.segment.write(record, offset + record.position());
+      }
+
+      // segment first, then index, so a crash in between is detected as a length mismatch
+      this.segmentLength += recordSize;
+      insertSlot(key, offset, html.length);
+      this.index.putLong(16, this.segmentLength);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  public int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.entries;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public long getSegmentLength() {
+    this.lock.readLock().lock();
+    try {
+      return this.segmentLength;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.lock.writeLock().lock();
+    try {
+      this.index.force();
+      this.segment.force(false);
+      this.segment.close();
+      this.fileLock.release();
+      this.lockChannel.close();
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  public boolean isEnabled() {
+    return this.fingerprint != null;
+  }
+
+  // the options are part of the key: a recover compile's partial html mustn't answer a strict
+  // compile (which would throw), nor a document under lax limits one under strict limits
+  public byte[] key(String md, CompileOptions options) {
+    if (this.fingerprint == null) {
+      throw new IllegalStateException("The compiler's classes couldn't be read, so the cache is disabled");
+    }
+    MessageDigest digest = sha256();
+    digest.update(this.fingerprint);
+    digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+    digest.update(md.getBytes(StandardCharsets.UTF_8));
+    return digest.digest();
+  }
+
+  // Hash of the class files of everything that decides the html, nested classes included, so
+  // a new compiler build never sees stale html. Null if any of them can't be read.
+  static byte[] fingerprint() {
+    MessageDigest digest = sha256();
+    for (Class<?> top : RENDER_PATH) {
+      for (Class<?> cls : top.getNestMembers()) {
+        String name = cls.getName();
+        try (InputStream in = cls.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+          if (in == null) {
+            return null;
+          }
+          digest.update(name.getBytes(StandardCharsets.UTF_8));
+          digest.update(in.readAllBytes());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void mapSegment() throws IOException {
+    this.segmentMap = this.segment.map(FileChannel.MapMode.READ_ONLY, 0, this.segmentLength);
+  }
+
+  private boolean loadIndex() throws IOException {
+    if (!Files.exists(this.indexPath) || Files.size(this.indexPath) < INDEX_HEADER_SIZE) {
+      return false;
+    }
+
+    try (FileChannel channel = FileChannel.open(this.indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      int slots = map.getInt(4);
+      if (map.getInt(0) != INDEX_MAGIC
+          || Integer.bitCount(slots) != 1
+          || channel.size() != INDEX_HEADER_SIZE + (long) slots * SLOT_SIZE
+          || map.getLong(16) != this.segmentLength) {
+        return false;
+      }
+
+      this.index = map;
+      this.slotCount = slots;
+      this.entries = map.getInt(8);
+      return true;
+    }
+  }
+
+  private void rebuildIndex(int minSlots) throws IOException {
+    // first pass finds the valid records, so the table can be sized before inserting
+    List<long[]> records = scanSegment();
+    long validLength = records.isEmpty() ? 0 : records.get(records.size() - 1)[0] + RECORD_HEADER_SIZE
+        + records.get(records.size() - 1)[1];
+    if (validLength != this.segment.size()) {
+      this.segment.truncate(validLength); // torn write at the tail
+    }
+
+    int slots = minSlots;
+    while ((long) records.size() * 2 >= slots) {
+      slots *= 2;
+    }
+    try (FileChannel channel = FileChannel.open(this.indexPath, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      this.index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) slots * SLOT_SIZE);
+    }
+    this.slotCount = slots;
+    this.entries = 0;
+    this.index.putInt(0, INDEX_MAGIC);
+    this.index.putInt(4, slots);
+
+    ByteBuffer key = ByteBuffer.allocate(KEY_SIZE);
+    for (long[] record : records) {
+      key.clear();
+      this.segment.read(key, record[0]);
+      insertSlot(key.array(), record[0], (int) record[1]);
+    }
+
+    this.segmentLength = validLength;
+    this.index.putLong(16, validLength);
+  }
+
+  // returns (offset, html length) of every complete record
+  private List<long[]> scanSegment() throws IOException {
+    List<long[]> records = new ArrayList<>();
+    ByteBuffer length = ByteBuffer.allocate(4);
+    long offset = 0;
+    long size = this.segment.size();
+    while (offset + RECORD_HEADER_SIZE <= size) {
+      length.clear();
+      this.segment.read(length, offset + KEY_SIZE);
+      int htmlLength = length.getInt(0);
+      if (htmlLength < 0 || offset + RECORD_HEADER_SIZE + htmlLength > size) {
+        break;
+      }
+      records.add(new long[] { offset, htmlLength });
+      offset += RECORD_HEADER_SIZE + htmlLength;
+    }
+    return records;
+  }
+
+  // keep the newest records that fit in half the budget, so compaction doesn't run on every put
+  private void compact() throws IOException {
+    List<long[]> live = new ArrayList<>();
+    for (int slot = 0; slot < this.slotCount; slot++) {
+      long offset = this.index.getLong(slotPosition(slot) + 8) - 1;
+      if (offset >= 0) {
+        live.add(new long[] { offset, RECORD_HEADER_SIZE + this.index.getInt(slotPosition(slot) + 16) });
+      }
+    }
+    live.sort(Comparator.comparingLong((long[] record) -> record[0]).reversed());
+
+    long kept = 0;
+    int keep = 0;
+    while (keep < live.size() && kept + live.get(keep)[1] <= this.maxBytes / 2) {
+      kept += live.get(keep)[1];
+      keep++;
+    }
+    List<long[]> survivors = new ArrayList<>(live.subList(0, keep));
+    survivors.sort(Comparator.comparingLong((long[] record) -> record[0]));
+
+    Path tmp = this.segmentPath.resolveSibling("cache.seg.tmp");
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (long[] record : survivors) {
+        this.segment.transferTo(record[0], record[1], out);
+      }
+      out.force(false);
+    }
+
+    // readers still holding slices of the old mapping keep seeing the old (unlinked) file
+    this.segment.close();
+    Files.move(tmp, this.segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.segment = FileChannel.open(this.segmentPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    rebuildIndex(this.slotCount);
+    mapSegment();
+  }
+
+  private int findSlot(byte[] key) {
+    long prefix = keyPrefix(key);
+    int mask = this.slotCount - 1;
+    for (int slot = (int) (prefix ^ (prefix >>> 32)) & mask;; slot = (slot + 1) & mask) {
+      int position = slotPosition(slot);
+      if (this.index.getLong(position + 8) == 0) {
+        return -1;
+      }
+      if (this.index.getLong(position) == prefix) {
+        return slot;
+      }
+    }
+  }
+
+  private void insertSlot(byte[] key, long offset, int length) {
+    long prefix = keyPrefix(key);
+    int mask = this.slotCount - 1;
+    int slot = (int) (prefix ^ (prefix >>> 32)) & mask;
+    while (this.index.getLong(slotPosition(slot) + 8) != 0 && this.index.getLong(slotPosition(slot)) != prefix) {
+      slot = (slot + 1) & mask;
+    }
+
+    int position = slotPosition(slot);
+    if (this.index.getLong(position + 8) == 0) {
+      this.entries++;
+      this.index.putInt(8, this.entries);
+    }
+    this.index.putLong(position, prefix);
+    this.index.putLong(position + 8, offset + 1);
+    this.index.putInt(position + 16, length);
+  }
+
+  private static int slotPosition(int slot) {
+    return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static long keyPrefix(byte[] key) {
+    return ByteBuffer.wrap(key).getLong();
+  }
+}
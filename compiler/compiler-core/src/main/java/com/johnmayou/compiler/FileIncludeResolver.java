@@ -0,0 +1,38 @@
+package com.johnmayou.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Resolves includes relative to the including file, within a root directory. Ids are
+// root-relative paths using '/'.
+public class FileIncludeResolver implements IncludeResolver {
+  private final Path root;
+
+  public FileIncludeResolver(Path root) {
+    this.root = root.toAbsolutePath().normalize();
+  }
+
+  @Override
+  public String resolve(String from, String target) {
+    Path dir = from == null ? this.root : this.root.resolve(from).getParent();
+    Path path = dir.resolve(target).normalize();
+    if (!path.startsWith(this.root)) {
+      throw new IllegalArgumentException("Include escapes root directory: " + target);
+    }
+    return idOf(path);
+  }
+
+  @Override
+  public String read(String id) throws IOException {
+    return Files.readString(this.root.resolve(id));
+  }
+
+  public String idOf(Path path) {
+    return this.root.relativize(path.toAbsolutePath().normalize()).toString().replace('\\', '/');
+  }
+
+  public Path getRoot() {
+    return this.root;
+  }
+}
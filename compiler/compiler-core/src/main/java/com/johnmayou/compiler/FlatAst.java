@@ -0,0 +1,166 @@
+package com.johnmayou.compiler;
+
+import java.util.Arrays;
+
+// AST stored as parallel arrays instead of a record per node, so a huge document is a
+// handful of arrays rather than millions of small objects. Node 0 is the root; links are
+// node ids, -1 when absent. Strings are the node's payload (text/href, lang/code, ...):
+// each node still holds a String copied out of its token rather than an offset/length into
+// the source, so the per-node objects are gone but the text allocations are not.
+// Read-only outside this package: build one with Compiler.parseFlat(String).
+public class FlatAst {
+  public static final int ROOT = 0;
+  public static final int HEADER = 1;
+  public static final int CODE_BLOCK = 2;
+  public static final int CODE_INLINE = 3;
+  public static final int QUOTE = 4;
+  public static final int QUOTE_ITEM = 5;
+  public static final int PARAGRAPH = 6;
+  public static final int TEXT = 7;
+  public static final int HORIZONTAL_RULE = 8;
+  public static final int IMAGE = 9;
+  public static final int LINK = 10;
+  public static final int LIST = 11;
+  public static final int LIST_ITEM = 12;
+
+  // TEXT value flags
+  public static final int BOLD = 1;
+  public static final int ITALIC = 2;
+
+  private int size;
+  private byte[] kind;
+  private int[] value; // header size, list ordered, text flags
+  private int[] parent;
+  private int[] firstChild;
+  private int[] lastChild;
+  private int[] nextSibling;
+  private String[] a;
+  private String[] b;
+
+  public FlatAst(int capacity) {
+    capacity = Math.max(capacity, 8);
+    this.kind = new byte[capacity];
+    this.value = new int[capacity];
+    this.parent = new int[capacity];
+    this.firstChild = new int[capacity];
+    this.lastChild = new int[capacity];
+    this.nextSibling = new int[capacity];
+    this.a = new String[capacity];
+    this.b = new String[capacity];
+  }
+
+  // the parser's way in; NodeSink's methods are public, so FlatAst doesn't implement it itself
+  Parser.NodeSink sink() {
+    return new Parser.NodeSink() {
+      @Override
+      public int node(int kind, int value, String a, String b) {
+        return FlatAst.this.node(kind, value, a, b);
+      }
+
+      @Override
+      public void append(int parent, int child) {
+        FlatAst.this.append(parent, child);
+      }
+    };
+  }
+
+  int node(int kind, int value, String a, String b) {
+    if (this.size == this.kind.length) {
+      grow();
+    }
+
+    int node = this.size++;
+    this.kind[node] = (byte) kind;
+    this.value[node] = value;
+    this.parent[node] = -1;
+    this.firstChild[node] = -1;
+    this.lastChild[node] = -1;
+    this.nextSibling[node] = -1;
+    this.a[node] = a;
+    this.b[node] = b;
+    return node;
+  }
+
+  void append(int parent, int child) {
+    this.parent[child] = parent;
+    if (this.lastChild[parent] < 0) {
+      this.firstChild[parent] = child;
+    } else {
+      this.nextSibling[this.lastChild[parent]] = child;
+    }
+    this.lastChild[parent] = child;
+  }
+
+  private void grow() {
+    int capacity = this.kind.length * 2;
+    this.kind = Arrays.copyOf(this.kind, capacity);
+    this.value = Arrays.copyOf(this.value, capacity);
+    this.parent = Arrays.copyOf(this.parent, capacity);
+    this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+    this.lastChild = Arrays.copyOf(this.lastChild, capacity);
+    this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+    this.a = Arrays.copyOf(this.a, capacity);
+    this.b = Arrays.copyOf(this.b, capacity);
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  // Walks the arena without allocating per node. Moves return false (and stay put) when
+  // there is nothing to move to.
+  public class Cursor {
+    private int node;
+
+    private Cursor() {
+    }
+
+    public int node() {
+      return this.node;
+    }
+
+    public int kind() {
+      return FlatAst.this.kind[this.node];
+    }
+
+    public int value() {
+      return FlatAst.this.value[this.node];
+    }
+
+    public String a() {
+      return FlatAst.this.a[this.node];
+    }
+
+    public String b() {
+      return FlatAst.this.b[this.node];
+    }
+
+    public boolean hasChildren() {
+      return FlatAst.this.firstChild[this.node] >= 0;
+    }
+
+    public boolean toFirstChild() {
+      return moveTo(FlatAst.this.firstChild[this.node]);
+    }
+
+    public boolean toNextSibling() {
+      return moveTo(FlatAst.this.nextSibling[this.node]);
+    }
+
+    public boolean toParent() {
+      return moveTo(FlatAst.this.parent[this.node]);
+    }
+
+    private boolean moveTo(int node) {
+      if (node < 0) {
+        return false;
+      }
+      this.node = node;
+      return true;
+    }
+  }
+}
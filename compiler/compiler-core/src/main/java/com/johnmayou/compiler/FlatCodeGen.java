@@ -0,0 +1,120 @@
+package com.johnmayou.compiler;
+
+// Renders a FlatAst to exactly the html CodeGen renders for the equivalent record tree.
+// The walk follows parent/sibling links, so it needs neither recursion nor a stack.
+class FlatCodeGen {
+  private FlatAst ast;
+  private StringBuilder html;
+  private CompileBudget budget;
+
+  public FlatCodeGen(FlatAst ast) {
+    this(ast, CompileBudget.unlimited());
+  }
+
+  public FlatCodeGen(FlatAst ast, CompileBudget budget) {
+    this.ast = ast;
+    this.html = new StringBuilder();
+    this.budget = budget;
+  }
+
+  public String gen() {
+    FlatAst.Cursor cursor = this.ast.cursor();
+    if (!cursor.toFirstChild()) {
+      return "";
+    }
+
+    while (true) {
+      this.budget.tick();
+      this.budget.checkOutput(this.html.length());
+      open(cursor);
+      if (cursor.toFirstChild()) {
+        continue;
+      }
+
+      // close nodes until one has a next sibling, or we are back at the root
+      while (true) {
+        close(cursor);
+        if (cursor.toNextSibling()) {
+          break;
+        }
+        cursor.toParent();
+        if (cursor.kind() == FlatAst.ROOT) {
+          this.budget.checkOutput(this.html.length());
+          return this.html.toString();
+        }
+      }
+    }
+  }
+
+  private void open(FlatAst.Cursor node) {
+    switch (node.kind()) {
+      case FlatAst.HEADER:
+        this.html.append("<h").append(node.value()).append('>');
+        break;
+      case FlatAst.CODE_BLOCK:
+        this.html.append("<pre><code class=\"").append(CodeGen.escapeHtml(node.a())).append("\">")
+            .append(node.b()).append("</code></pre>");
+        break;
+      case FlatAst.CODE_INLINE:
+        this.html.append("<code class=\"").append(CodeGen.escapeHtml(node.a())).append("\">")
+            .append(node.b()).append("</code>");
+        break;
+      case FlatAst.QUOTE:
+        this.html.append("<blockquote>");
+        break;
+      case FlatAst.QUOTE_ITEM:
+      case FlatAst.PARAGRAPH:
+        this.html.append("<p>");
+        break;
+      case FlatAst.TEXT:
+        boolean bold = (node.value() & FlatAst.BOLD) != 0;
+        boolean italic = (node.value() & FlatAst.ITALIC) != 0;
+        this.html.append(italic ? "<i>" : "").append(bold ? "<b>" : "")
+            .append(CodeGen.escapeHtml(node.a()))
+            .append(bold ? "</b>" : "").append(italic ? "</i>" : "");
+        break;
+      case FlatAst.HORIZONTAL_RULE:
+        this.html.append("<hr>");
+        break;
+      case FlatAst.IMAGE:
+        this.html.append("<img alt=\"").append(CodeGen.escapeHtml(node.a())).append("\" src=\"")
+            .append(CodeGen.escapeHtml(node.b())).append("\"/>");
+        break;
+      case FlatAst.LINK:
+        this.html.append("<a href=\"").append(CodeGen.escapeHtml(node.b())).append("\">")
+            .append(CodeGen.escapeHtml(node.a())).append("</a>");
+        break;
+      case FlatAst.LIST:
+        this.html.append(node.value() != 0 ? "<ol>" : "<ul>");
+        break;
+      case FlatAst.LIST_ITEM:
+        this.html.append("<li>");
+        break;
+      default:
+        throw new RuntimeException("Invalid node kind: " + node.kind());
+    }
+  }
+
+  private void close(FlatAst.Cursor node) {
+    switch (node.kind()) {
+      case FlatAst.HEADER:
+        this.html.append("</h").append(node.value()).append('>');
+        break;
+      case FlatAst.QUOTE:
+        this.html.append("</blockquote>");
+        break;
+      case FlatAst.QUOTE_ITEM:
+      case FlatAst.PARAGRAPH:
+        this.html.append("</p>");
+        break;
+      case FlatAst.LIST:
+        this.html.append(node.value() != 0 ? "</ol>" : "</ul>");
+        break;
+      case FlatAst.LIST_ITEM:
+        this.html.append("</li>");
+        break;
+      default:
+        break; // leaves are written whole by open()
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.johnmayou.compiler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caches the html of top-level blocks, keyed by the block's source text, so documents
+// sharing boilerplate (footers, code samples, ...) only compile the blocks that differ.
+// Bounded by the total chars of source + html held; the least recently used blocks are
+// evicted first, so shared boilerplate stays cached while one-off blocks pass through.
+public class FragmentCache {
+  private final long maxChars;
+  // access ordered; guarded by this.blocks
+  private final Map<String, Fragment> blocks = new LinkedHashMap<>(16, 0.75f, true);
+  private long chars;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  // a block's html, and its token count so a hit is charged to the compile's token budget
+  // like a miss would be
+  public record Fragment(String html, int tokens) {
+  }
+
+  public FragmentCache(long maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  public Fragment get(String block) {
+    Fragment fragment;
+    synchronized (this.blocks) {
+      fragment = this.blocks.get(block);
+    }
+    if (fragment == null) {
+      this.misses.increment();
+    } else {
+      this.hits.increment();
+    }
+    return fragment;
+  }
+
+  public void put(String block, Fragment fragment) {
+    long weight = weight(block, fragment);
+    if (weight > this.maxChars) {
+      return;
+    }
+
+    synchronized (this.blocks) {
+      if (this.blocks.putIfAbsent(block, fragment) != null) {
+        return;
+      }
+      this.chars += weight;
+
+      Iterator<Map.Entry<String, Fragment>> eldest = this.blocks.entrySet().iterator();
+      while (this.chars > this.maxChars && eldest.hasNext()) {
+        Map.Entry<String, Fragment> entry = eldest.next();
+        this.chars -= weight(entry.getKey(), entry.getValue());
+        eldest.remove();
+      }
+    }
+  }
+
+  private static long weight(String block, Fragment fragment) {
+    return (long) block.length() + fragment.html().length();
+  }
+
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  public double getHitRatio() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public int size() {
+    synchronized (this.blocks) {
+      return this.blocks.size();
+    }
+  }
+
+  public long getChars() {
+    synchronized (this.blocks) {
+      return this.chars;
+    }
+  }
+
+  // Splits md at blank lines outside of code blocks. Every top-level construct ends at a
+  // blank line, so each block compiles to exactly the html it produces inside the whole
+  // document. Blocks keep their newlines, so joining them gives back md.
+  static List<String> splitBlocks(String md) {
+    List<String> blocks = new ArrayList<>();
+    int blockStart = 0;
+    int pos = 0;
+    boolean afterCodeBlock = false;
+    while (pos < md.length()) {
+      // the lexer can open a code block right where the previous one closed, mid-line
+      boolean lineStart = pos == 0 || md.charAt(pos - 1) == '\n' || afterCodeBlock;
+      afterCodeBlock = false;
+      if (lineStart && md.startsWith("```", pos)) {
+        int codeStart = md.indexOf('\n', pos);
+        int codeEnd = codeStart < 0 ? -1 : md.indexOf("```", codeStart + 1);
+        if (codeEnd >= 0) {
+          pos = codeEnd + 3;
+          afterCodeBlock = true;
+          continue;
+        }
+      }
+
+      if (md.charAt(pos) == '\n' && pos + 1 < md.length() && md.charAt(pos + 1) == '\n'
+          && pos > 0 && md.charAt(pos - 1) != '\n') {
+        blocks.add(md.substring(blockStart, pos + 1));
+        blockStart = pos + 1;
+      }
+      pos++;
+    }
+    if (blockStart < md.length()) {
+      blocks.add(md.substring(blockStart));
+    }
+    return blocks;
+  }
+}
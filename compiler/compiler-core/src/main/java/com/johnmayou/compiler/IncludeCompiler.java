@@ -0,0 +1,208 @@
+package com.johnmayou.compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Compiles documents that pull in shared fragments with an include directive on a line of
+// its own:
+//
+//   !include path/to/fragment.md
+//
+// The directive acts as a block of its own (as if surrounded by blank lines) and is
+// replaced by the fragment's compiled html. Every document's html is cached, and the
+// include graph is kept so a change only invalidates the documents that depend on it.
+public class IncludeCompiler {
+  private static final Pattern INCLUDE_PATTERN = Pattern.compile("\\A!include\\s+(\\S+)\\s*\\z");
+
+  private final Compiler compiler;
+  private final IncludeResolver resolver;
+  private final Map<String, String> htmlCache = new ConcurrentHashMap<>();
+  // bumped on every invalidation, so a compile that raced with one doesn't cache stale html
+  private final AtomicLong generation = new AtomicLong();
+
+  // guarded by this.graphLock
+  private final Object graphLock = new Object();
+  private final Map<String, Set<String>> dependencies = new HashMap<>();
+  private final Map<String, Set<String>> dependents = new HashMap<>();
+
+  public IncludeCompiler(Compiler compiler, IncludeResolver resolver) {
+    this.compiler = compiler;
+    this.resolver = resolver;
+  }
+
+  public String compile(String id) {
+    return compile(id, new ArrayDeque<>());
+  }
+
+  private String compile(String id, Deque<String> including) {
+    String cached = this.htmlCache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+    if (including.contains(id)) {
+      throw new RuntimeException("Include cycle: " + String.join(" -> ", including) + " -> " + id);
+    }
+
+    long generation = this.generation.get();
+    String md;
+    try {
+      md = this.resolver.read(id);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read " + id, e);
+    }
+
+    including.addLast(id);
+    StringBuilder html = new StringBuilder();
+    Set<String> includes = new LinkedHashSet<>();
+    StringBuilder segment = new StringBuilder();
+    try {
+      for (Line line : lines(md)) {
+        Matcher matcher = line.fenced() ? null : INCLUDE_PATTERN.matcher(line.text().strip());
+        if (matcher == null || !matcher.find()) {
+          segment.append(line.text());
+          continue;
+        }
+
+        html.append(this.compiler.compile(segment.toString()));
+        segment.setLength(0);
+        String includeId = this.resolver.resolve(id, matcher.group(1));
+        includes.add(includeId);
+        html.append(compile(includeId, including));
+      }
+      html.append(this.compiler.compile(segment.toString()));
+    } finally {
+      including.removeLast();
+      // recorded even when an include failed, so creating or fixing it rebuilds this document
+      setDependencies(id, includes);
+    }
+
+    String result = html.toString();
+    if (this.generation.get() == generation) {
+      this.htmlCache.put(id, result);
+    }
+    return result;
+  }
+
+  // Drops the cached html of the changed documents and everything that transitively
+  // includes them, and returns all of those ids (the pages to rebuild are among them).
+  public Set<String> invalidate(Collection<String> changed) {
+    Set<String> affected = new LinkedHashSet<>();
+    synchronized (this.graphLock) {
+      Deque<String> queue = new ArrayDeque<>(changed);
+      while (!queue.isEmpty()) {
+        String id = queue.poll();
+        if (affected.add(id)) {
+          queue.addAll(this.dependents.getOrDefault(id, Set.of()));
+        }
+      }
+    }
+
+    this.generation.incrementAndGet();
+    for (String id : affected) {
+      this.htmlCache.remove(id);
+    }
+    return affected;
+  }
+
+  // forgets a deleted document; returns the documents that included it
+  public Set<String> remove(String id) {
+    Set<String> affected = invalidate(List.of(id));
+    setDependencies(id, Set.of());
+    synchronized (this.graphLock) {
+      this.dependents.remove(id);
+    }
+    affected.remove(id);
+    return affected;
+  }
+
+  public Set<String> dependenciesOf(String id) {
+    synchronized (this.graphLock) {
+      return Set.copyOf(this.dependencies.getOrDefault(id, Set.of()));
+    }
+  }
+
+  public Set<String> dependentsOf(String id) {
+    synchronized (this.graphLock) {
+      return Set.copyOf(this.dependents.getOrDefault(id, Set.of()));
+    }
+  }
+
+  public boolean isCached(String id) {
+    return this.htmlCache.containsKey(id);
+  }
+
+  private void setDependencies(String id, Set<String> includes) {
+    synchronized (this.graphLock) {
+      Set<String> previous = this.dependencies.put(id, includes);
+      for (String dependency : previous == null ? Set.<String>of() : previous) {
+        Set<String> ids = this.dependents.get(dependency);
+        if (ids != null) {
+          ids.remove(id);
+        }
+      }
+      for (String dependency : includes) {
+        this.dependents.computeIfAbsent(dependency, key -> new HashSet<>()).add(id);
+      }
+    }
+  }
+
+  private record Line(String text, boolean fenced) {
+  }
+
+  // splits md into lines (keeping their newlines), marking the ones a code block touches so
+  // a directive shown in a code sample isn't expanded
+  private static List<Line> lines(String md) {
+    LineIndex index = new LineIndex(md);
+    List<int[]> codeBlocks = codeBlocks(md, index);
+    List<Line> lines = new ArrayList<>();
+    int block = 0;
+    for (int start = 0; start < md.length();) {
+      int end = index.nextLineStart(start);
+      end = end < 0 ? md.length() : end;
+      while (block < codeBlocks.size() && codeBlocks.get(block)[1] <= start) {
+        block++;
+      }
+      boolean fenced = block < codeBlocks.size() && codeBlocks.get(block)[0] < end;
+      lines.add(new Line(md.substring(start, end), fenced));
+      start = end;
+    }
+    return lines;
+  }
+
+  // [start, end) of each code block, found the way the lexer finds them: a line opening with
+  // ``` runs to the next ``` anywhere after it (lexing resumes right after that), and an
+  // opening with no closing ``` isn't a code block at all
+  private static List<int[]> codeBlocks(String md, LineIndex index) {
+    List<int[]> blocks = new ArrayList<>();
+    Matcher opening = Lexer.CODEBLOCK_PATTERN.matcher(md);
+    int start = 0;
+    while (start < md.length()) {
+      if (md.startsWith("```", start) && opening.region(start, md.length()).find()) {
+        int nextLine = index.nextLineStart(start);
+        int fence = nextLine < 0 ? -1 : index.nextFence(nextLine);
+        if (fence >= 0) {
+          blocks.add(new int[] { start, fence + 3 });
+          start = fence + 3;
+          continue;
+        }
+      }
+      int nextLine = index.nextLineStart(start);
+      start = nextLine < 0 ? md.length() : nextLine;
+    }
+    return blocks;
+  }
+}
@@ -0,0 +1,12 @@
+package com.johnmayou.compiler;
+
+import java.io.IOException;
+
+// Locates documents referenced by include directives. Ids are opaque to IncludeCompiler;
+// they only need to be stable, so the same document always resolves to the same id.
+public interface IncludeResolver {
+  // from is the id of the including document
+  String resolve(String from, String target);
+
+  String read(String id) throws IOException;
+}
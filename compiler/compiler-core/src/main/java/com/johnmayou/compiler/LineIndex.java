@@ -0,0 +1,86 @@
+package com.johnmayou.compiler;
+
+import java.util.Arrays;
+
+// Where every line of a document starts and where every "```" is, found in a single pass so
+// the lexer's block rules can look them up instead of each rescanning the text char by char.
+// Also keeps the line terminators other than '\n' (which regex '.' doesn't match either), so
+// rules written as "rest of the line" patterns can be answered from the index. Offsets are
+// absolute positions in the source.
+class LineIndex {
+  private int[] lineStarts;
+  private int lines;
+  private int[] fences;
+  private int fenceCount;
+  private int[] otherTerminators;
+  private int otherTerminatorCount;
+
+  LineIndex(CharSequence source) {
+    int length = source.length();
+    this.lineStarts = new int[Math.max(16, length / 32)];
+    this.fences = new int[16];
+    this.otherTerminators = new int[16];
+    this.lineStarts[this.lines++] = 0;
+
+    // Plain loop on purpose: at markdown line lengths it beat both a word-at-a-time (SWAR)
+    // search over the Latin-1 bytes and repeated String.indexOf, since most words hold a
+    // newline anyway and the String's bytes aren't reachable without a copy.
+    for (int i = 0; i < length; i++) {
+      char ch = source.charAt(i);
+      if (ch == '\n') {
+        if (this.lines == this.lineStarts.length) {
+          this.lineStarts = Arrays.copyOf(this.lineStarts, this.lines * 2);
+        }
+        this.lineStarts[this.lines++] = i + 1;
+      } else if (ch == '`' && i + 2 < length && source.charAt(i + 1) == '`' && source.charAt(i + 2) == '`') {
+        if (this.fenceCount == this.fences.length) {
+          this.fences = Arrays.copyOf(this.fences, this.fenceCount * 2);
+        }
+        this.fences[this.fenceCount++] = i;
+      } else if (ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
+        if (this.otherTerminatorCount == this.otherTerminators.length) {
+          this.otherTerminators = Arrays.copyOf(this.otherTerminators, this.otherTerminatorCount * 2);
+        }
+        this.otherTerminators[this.otherTerminatorCount++] = i;
+      }
+    }
+  }
+
+  // line containing offset
+  int lineOf(int offset) {
+    int line = Arrays.binarySearch(this.lineStarts, 0, this.lines, offset);
+    return line >= 0 ? line : -line - 2;
+  }
+
+  int lineCount() {
+    return this.lines;
+  }
+
+  int lineStart(int line) {
+    return this.lineStarts[line];
+  }
+
+  // just past the first '\n' at or after offset, or -1 if there is none
+  int nextLineStart(int offset) {
+    int next = lineOf(offset) + 1;
+    return next < this.lines ? this.lineStarts[next] : -1;
+  }
+
+  // first "```" starting at or after offset (runs of more backticks match at each one), or -1
+  int nextFence(int offset) {
+    return next(this.fences, this.fenceCount, offset);
+  }
+
+  // first '\r', '\u0085', '\u2028' or '\u2029' at or after offset, or -1
+  int nextOtherTerminator(int offset) {
+    return next(this.otherTerminators, this.otherTerminatorCount, offset);
+  }
+
+  private static int next(int[] offsets, int count, int offset) {
+    int index = Arrays.binarySearch(offsets, 0, count, offset);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return index < count ? offsets[index] : -1;
+  }
+}
@@ -0,0 +1,135 @@
+package com.johnmayou.compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Html encoded as UTF-8 straight into buffers from a ByteBufferPool, so a response can be
+// written to a channel without first building it as a String and then encoding that.
+// Pre-encoded constant chunks (page header/footer) are added as segments of their own and
+// never copied. Closing returns the pooled buffers.
+public class Utf8Output implements AutoCloseable {
+  private final ByteBufferPool pool;
+  private final List<Segment> segments = new ArrayList<>();
+  private ByteBuffer current;
+  private char highSurrogate;
+  private int length;
+  private long size;
+
+  // pooled buffers are still being written (position is the end); encoded ones are ready to read
+  private record Segment(ByteBuffer buffer, boolean pooled) {
+  }
+
+  public Utf8Output(ByteBufferPool pool) {
+    this.pool = pool;
+  }
+
+  public void append(CharSequence chars) {
+    for (int i = 0; i < chars.length(); i++) {
+      char ch = chars.charAt(i);
+      if (ch < 0x80 && this.highSurrogate == 0) {
+        put((byte) ch);
+      } else {
+        appendNonAscii(ch);
+      }
+    }
+    this.length += chars.length();
+  }
+
+  private void appendNonAscii(char ch) {
+    if (this.highSurrogate != 0) {
+      char high = this.highSurrogate;
+      this.highSurrogate = 0;
+      if (Character.isLowSurrogate(ch)) {
+        int codePoint = Character.toCodePoint(high, ch);
+        put((byte) (0xf0 | (codePoint >> 18)));
+        put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        put((byte) (0x80 | (codePoint & 0x3f)));
+        return;
+      }
+      put((byte) '?'); // unpaired, same as String.getBytes
+    }
+
+    if (ch < 0x80) {
+      put((byte) ch);
+    } else if (ch < 0x800) {
+      put((byte) (0xc0 | (ch >> 6)));
+      put((byte) (0x80 | (ch & 0x3f)));
+    } else if (Character.isHighSurrogate(ch)) {
+      // the low half may come in the next append
+      this.highSurrogate = ch;
+    } else if (Character.isLowSurrogate(ch)) {
+      put((byte) '?');
+    } else {
+      put((byte) (0xe0 | (ch >> 12)));
+      put((byte) (0x80 | ((ch >> 6) & 0x3f)));
+      put((byte) (0x80 | (ch & 0x3f)));
+    }
+  }
+
+  private void put(byte b) {
+    if (this.current == null || !this.current.hasRemaining()) {
+      this.current = this.pool.acquire();
+      this.segments.add(new Segment(this.current, true));
+    }
+    this.current.put(b);
+    this.size++;
+  }
+
+  // adds already encoded bytes as their own segment (shared, not copied)
+  public void appendEncoded(ByteBuffer bytes) {
+    finishSurrogate();
+    this.segments.add(new Segment(bytes.duplicate(), false));
+    this.current = null;
+    this.size += bytes.remaining();
+  }
+
+  private void finishSurrogate() {
+    if (this.highSurrogate != 0) {
+      this.highSurrogate = 0;
+      put((byte) '?');
+    }
+  }
+
+  // chars appended, not counting pre-encoded segments
+  public int length() {
+    return this.length;
+  }
+
+  // bytes written so far
+  public long size() {
+    return this.size;
+  }
+
+  // read views over the encoded bytes, in order
+  public List<ByteBuffer> buffers() {
+    finishSurrogate();
+    List<ByteBuffer> buffers = new ArrayList<>(this.segments.size());
+    for (Segment segment : this.segments) {
+      buffers.add(segment.pooled() ? segment.buffer().duplicate().flip() : segment.buffer().duplicate());
+    }
+    return buffers;
+  }
+
+  public void writeTo(WritableByteChannel channel) throws IOException {
+    for (ByteBuffer buffer : buffers()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    for (Segment segment : this.segments) {
+      if (segment.pooled()) {
+        this.pool.release(segment.buffer());
+      }
+    }
+    this.segments.clear();
+    this.current = null;
+  }
+}
@@ -0,0 +1,98 @@
+package com.johnmayou.compiler;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs a corpus through the compiler in rounds until the JIT has settled, so the first real
+// requests don't run in the interpreter. A round counts as settled when the JIT spent under
+// 5% of it compiling and throughput is within 5% of the previous round; three settled rounds
+// in a row (or maxDuration) end the warm-up.
+public class Warmup {
+  private static final long ROUND_NANOS = 200_000_000;
+  private static final double SETTLED_JIT_FRACTION = 0.05;
+  private static final double SETTLED_THROUGHPUT_CHANGE = 0.05;
+  private static final int SETTLED_ROUNDS = 3;
+
+  public record Result(int rounds, long documents, long chars, Duration duration, boolean settled, int skipped) {
+    public double charsPerSecond() {
+      return this.chars / (this.duration.toNanos() / 1e9);
+    }
+  }
+
+  private Warmup() {
+  }
+
+  public static Result run(Compiler compiler, List<String> corpus, Duration maxDuration) {
+    // a document that doesn't compile would only warm up the error path
+    List<String> compilable = new ArrayList<>();
+    for (String md : corpus) {
+      try {
+        compiler.compile(md);
+        compilable.add(md);
+      } catch (RuntimeException e) {
+        // skipped
+      }
+    }
+
+    CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    boolean jitTimed = jit != null && jit.isCompilationTimeMonitoringSupported();
+    ByteBufferPool pool = new ByteBufferPool(64 * 1024, 16);
+    // the server compiles in recover mode, whatever the compiler was built with
+    CompileOptions served = compiler.getOptions().withRecover(true);
+
+    long start = System.nanoTime();
+    long deadline = start + maxDuration.toNanos();
+    int rounds = 0;
+    long documents = 0;
+    long chars = 0;
+    Settling settling = new Settling();
+
+    while (!compilable.isEmpty() && !settling.isSettled() && System.nanoTime() < deadline) {
+      long roundStart = System.nanoTime();
+      long jitStart = jitTimed ? jit.getTotalCompilationTime() : 0;
+      long roundChars = 0;
+      do {
+        for (String md : compilable) {
+          // both render paths: String, and pooled buffers as served
+          compiler.compile(md);
+          try (Utf8Output out = new Utf8Output(pool)) {
+            compiler.compileTo(md, out, new CompileBudget(served));
+          }
+          roundChars += 2L * md.length();
+          documents += 2;
+        }
+      } while (System.nanoTime() - roundStart < ROUND_NANOS);
+
+      long jitNanos = jitTimed ? (jit.getTotalCompilationTime() - jitStart) * 1_000_000 : -1;
+      settling.round(roundChars, System.nanoTime() - roundStart, jitNanos);
+      chars += roundChars;
+      rounds++;
+    }
+
+    return new Result(rounds, documents, chars, Duration.ofNanos(System.nanoTime() - start),
+        settling.isSettled(), corpus.size() - compilable.size());
+  }
+
+  // Decides when the rounds have settled, from each round's measurements.
+  static class Settling {
+    private double lastThroughput;
+    private int settledRounds;
+
+    // jitNanos is negative when the JVM doesn't time its JIT
+    void round(long chars, long nanos, long jitNanos) {
+      double throughput = chars / (double) nanos;
+      boolean jitQuiet = jitNanos < 0 || jitNanos < nanos * SETTLED_JIT_FRACTION;
+      boolean steady = this.lastThroughput > 0
+          && Math.abs(throughput - this.lastThroughput) < this.lastThroughput * SETTLED_THROUGHPUT_CHANGE;
+      this.settledRounds = jitQuiet && steady ? this.settledRounds + 1 : 0;
+      this.lastThroughput = throughput;
+    }
+
+    boolean isSettled() {
+      return this.settledRounds >= SETTLED_ROUNDS;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package com.johnmayou.compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Watches a directory tree and recompiles markdown files to .html as they change. Bursts
+// of events (editors often write a file several times per save) are coalesced until the
+// tree has been quiet for the debounce interval, then only the changed files and the
+// documents that include them are recompiled, on a bounded worker pool. The process stays
+// up, so the JIT and the include cache stay warm between edits.
+public class WatchCompiler implements Closeable {
+  private static final Set<String> MARKDOWN_EXTENSIONS = Set.of(".md", ".markdown", ".text");
+
+  private final Path root;
+  private final Path outDir;
+  private final Duration debounce;
+  private final FileIncludeResolver resolver;
+  private final IncludeCompiler compiler;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+  private final ThreadPoolExecutor workers;
+
+  public WatchCompiler(Path root, Path outDir, int threads, Duration debounce, Compiler compiler) throws IOException {
+    this.root = root.toAbsolutePath().normalize();
+    this.outDir = outDir.toAbsolutePath().normalize();
+    this.debounce = debounce;
+    this.resolver = new FileIncludeResolver(this.root);
+    this.compiler = new IncludeCompiler(compiler, this.resolver);
+    this.watchService = FileSystems.getDefault().newWatchService();
+    // a full queue makes the watcher thread compile too, which throttles event intake
+    this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  public void buildAll() throws IOException {
+    long start = System.nanoTime();
+    List<String> ids = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(this.root)) {
+      files.filter(Files::isRegularFile).filter(WatchCompiler::isMarkdown).forEach(file -> ids.add(this.resolver.idOf(file)));
+    }
+    compileAll(ids, start);
+    System.out.printf("built %d files in %.1f ms%n", ids.size(), (System.nanoTime() - start) / 1e6);
+  }
+
+  // blocks until close() is called from another thread
+  public void watch() throws IOException, InterruptedException {
+    registerTree(this.root);
+
+    try {
+      while (true) {
+        // wait for the first event of a burst, then coalesce until quiet
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey first = this.watchService.take();
+        long burstStart = System.nanoTime();
+        boolean overflow = drain(first, changed);
+        WatchKey key;
+        while ((key = this.watchService.poll(this.debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+          overflow |= drain(key, changed);
+        }
+
+        if (overflow) {
+          this.compiler.invalidate(markdownIds());
+          buildAll();
+        } else if (!changed.isEmpty()) {
+          rebuild(changed, burstStart);
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private boolean drain(WatchKey key, Set<Path> changed) throws IOException {
+    Path dir = this.watchedDirs.get(key);
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+        overflow = true;
+        continue;
+      }
+
+      Path path = dir.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        registerTree(path);
+        try (Stream<Path> files = Files.walk(path)) {
+          files.filter(WatchCompiler::isMarkdown).forEach(file -> changed.add(file));
+        }
+      } else if (isMarkdown(path)) {
+        changed.add(path);
+      }
+    }
+    if (!key.reset()) {
+      this.watchedDirs.remove(key);
+    }
+    return overflow;
+  }
+
+  private void rebuild(Set<Path> changed, long burstStart) throws IOException {
+    List<String> ids = new ArrayList<>();
+    for (Path path : changed) {
+      String id = this.resolver.idOf(path);
+      if (Files.exists(path)) {
+        ids.add(id);
+      } else {
+        ids.addAll(this.compiler.remove(id));
+        Files.deleteIfExists(outputPath(id));
+        System.out.printf("removed %s%n", id);
+      }
+    }
+
+    List<String> affected = new ArrayList<>();
+    for (String id : this.compiler.invalidate(ids)) {
+      if (Files.exists(this.root.resolve(id))) {
+        affected.add(id);
+      }
+    }
+    compileAll(affected, burstStart);
+  }
+
+  private void compileAll(List<String> ids, long since) {
+    List<Future<?>> pending = new ArrayList<>();
+    for (String id : ids) {
+      pending.add(this.workers.submit(() -> compileOne(id, since)));
+    }
+    for (Future<?> future : pending) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        // already reported by compileOne
+      }
+    }
+  }
+
+  private void compileOne(String id, long since) {
+    long start = System.nanoTime();
+    try {
+      String html = this.compiler.compile(id);
+      writeAtomically(outputPath(id), html);
+      long end = System.nanoTime();
+      System.out.printf("compiled %s in %.1f ms (%.1f ms since change)%n", id, (end - start) / 1e6,
+          (end - since) / 1e6);
+    } catch (IOException | RuntimeException e) {
+      System.err.printf("failed to compile %s: %s%n", id, e.getMessage());
+    }
+  }
+
+  private Set<String> markdownIds() throws IOException {
+    try (Stream<Path> files = Files.walk(this.root)) {
+      return files.filter(WatchCompiler::isMarkdown).map(this.resolver::idOf).collect(Collectors.toSet());
+    }
+  }
+
+  private Path outputPath(String id) {
+    int extension = id.lastIndexOf('.');
+    return this.outDir.resolve((extension < 0 ? id : id.substring(0, extension)) + ".html");
+  }
+
+  // readers of the output never see a half-written file
+  private static void writeAtomically(Path path, String content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      Files.writeString(tmp, content);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void registerTree(Path dir) throws IOException {
+    Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+        if (subdir.startsWith(WatchCompiler.this.outDir) && !WatchCompiler.this.outDir.equals(WatchCompiler.this.root)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        WatchKey key = subdir.register(WatchCompiler.this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        WatchCompiler.this.watchedDirs.put(key, subdir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static boolean isMarkdown(Path path) {
+    String name = path.getFileName().toString();
+    int extension = name.lastIndexOf('.');
+    return extension >= 0 && MARKDOWN_EXTENSIONS.contains(name.substring(extension));
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.watchService.close();
+    this.workers.shutdown();
+    try {
+      this.workers.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The server's DEFAULT limits are sized for untrusted requests; a 2 second timeout or a 4M
+  // char cap would fail large local books for no benefit. Local files compile unlimited
+  // unless a limit is set with a system property.
+  static CompileOptions options() {
+    CompileOptions options = CompileOptions.UNLIMITED
+        .withMaxInputLength(Integer.getInteger("compiler.watch.maxInputLength", Integer.MAX_VALUE))
+        .withMaxTokens(Integer.getInteger("compiler.watch.maxTokens", Integer.MAX_VALUE))
+        .withMaxNestingDepth(Integer.getInteger("compiler.watch.maxNestingDepth", Integer.MAX_VALUE))
+        .withMaxOutputLength(Integer.getInteger("compiler.watch.maxOutputLength", Integer.MAX_VALUE))
+        .withRecover(Boolean.getBoolean("compiler.watch.recover"));
+    Long timeoutMillis = Long.getLong("compiler.watch.timeoutMillis");
+    return timeoutMillis == null ? options : options.withTimeout(Duration.ofMillis(timeoutMillis));
+  }
+
+  static void run(String[] args) throws IOException, InterruptedException {
+    Path root = Path.of(args[0]);
+    Path outDir = args.length > 1 ? Path.of(args[1]) : root;
+    int threads = Integer.getInteger("compiler.watch.threads", Runtime.getRuntime().availableProcessors());
+    Duration debounce = Duration.ofMillis(Long.getLong("compiler.watch.debounceMillis", 50));
+
+    // closed from a shutdown hook as well as on the way out, so not a try-with-resources
+    WatchCompiler watcher = new WatchCompiler(root, outDir, threads, debounce, new Compiler(options()));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }));
+    try {
+      watcher.buildAll();
+      System.out.printf("watching %s%n", watcher.root);
+      watcher.watch();
+    } finally {
+      watcher.close();
+    }
+  }
+}
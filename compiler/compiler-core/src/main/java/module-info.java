@@ -0,0 +1,7 @@
+module com.johnmayou.compiler {
+  requires java.management; // Warmup reads the JIT's compilation time
+  requires jdk.management; // CompileProfile counts allocated bytes per thread
+  requires jdk.jfr; // CompilerEvents
+
+  exports com.johnmayou.compiler;
+}
@@ -0,0 +1,259 @@
+package com.johnmayou.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Rough wall-clock benchmarks, run with `./gradlew bench` (or `./gradlew bench --args=astCodec`
+// for a single one). Numbers are only comparable between runs on the same machine.
+class Benchmarks {
+	private static Object sink;
+
+	public static void main(String[] args) throws IOException {
+		List<String> only = Arrays.asList(args);
+
+		if (only.isEmpty() || only.contains("astCodec")) {
+			astCodec();
+		}
+		if (only.isEmpty() || only.contains("deepNesting")) {
+			deepNesting();
+		}
+		if (only.isEmpty() || only.contains("flatAst")) {
+			flatAst();
+		}
+		if (only.isEmpty() || only.contains("directOutput")) {
+			directOutput();
+		}
+		if (only.isEmpty() || only.contains("scheduler")) {
+			scheduler();
+		}
+	}
+
+	static void astCodec() throws IOException {
+		String md = exampleMarkdown().repeat(500);
+		Compiler compiler = new Compiler();
+		Parser.ASTRootNode ast = compiler.parse(compiler.tokenize(md));
+		byte[] encoded = AstCodec.encode(ast);
+		byte[] encodedWithSource = AstCodec.encode(ast, md);
+
+		System.out.println("== astCodec ==");
+		System.out.printf("size: markdown %d bytes, encoded %d bytes, encoded with source refs %d bytes%n",
+				md.getBytes(StandardCharsets.UTF_8).length, encoded.length, encodedWithSource.length);
+		report("load: re-parse", () -> compiler.parse(compiler.tokenize(md)));
+		report("load: decode", () -> AstCodec.decode(encoded));
+		report("load: decode with source refs", () -> AstCodec.decode(encodedWithSource, md));
+		report("html: re-parse + gen", () -> compiler.compile(md));
+		report("html: render from bytes", () -> AstCodec.render(encoded));
+		report("html: render from bytes with source refs", () -> AstCodec.render(encodedWithSource, md));
+	}
+
+	static void deepNesting() {
+		System.out.println("== deepNesting ==");
+		Compiler compiler = new Compiler();
+		for (int depth : new int[] { 100, 1_000, 10_000 }) {
+			List<Lexer.Token> list = new ArrayList<>();
+			List<Lexer.Token> quote = new ArrayList<>();
+			for (int i = 0; i < depth; i++) {
+				list.addAll(List.of(new Lexer.ListItemToken(i, false, -1), new Lexer.TextToken("item", false, false),
+						new Lexer.NewLineToken()));
+				quote.addAll(List.of(new Lexer.BlockQuoteToken(i + 1), new Lexer.TextToken("quote", false, false),
+						new Lexer.NewLineToken()));
+			}
+
+			report("list depth " + depth + ": parse + gen", () -> compiler.gen(compiler.parse(list)));
+			report("quote depth " + depth + ": parse + gen", () -> compiler.gen(compiler.parse(quote)));
+		}
+
+		StringBuilder md = new StringBuilder();
+		for (int i = 0; i < 1_000; i++) {
+			md.append("  ".repeat(i)).append("- item\n");
+		}
+		String deepList = md.toString();
+		report("list depth 1000: compile from markdown", () -> compiler.compile(deepList));
+	}
+
+	static void flatAst() throws IOException {
+		String md = exampleMarkdown().repeat(2_000);
+		Compiler compiler = new Compiler();
+		List<Lexer.Token> tks = compiler.tokenize(md);
+
+		System.out.println("== flatAst ==");
+		System.out.printf("parse allocation: record tree %,d bytes, flat arena %,d bytes%n",
+				allocatedBytes(() -> compiler.parse(tks)), allocatedBytes(() -> compiler.parseFlat(tks)));
+		System.out.printf("retained heap: record tree %,d bytes, flat arena %,d bytes%n",
+				retainedBytes(() -> compiler.parse(tks)), retainedBytes(() -> compiler.parseFlat(tks)));
+
+		Parser.ASTRootNode tree = compiler.parse(tks);
+		FlatAst flat = compiler.parseFlat(tks);
+		report("parse: record tree", () -> compiler.parse(tks));
+		report("parse: flat arena", () -> compiler.parseFlat(tks));
+		report("render: record tree", () -> compiler.gen(tree));
+		report("render: flat arena", () -> compiler.gen(flat));
+	}
+
+	// response bytes from compile() + wrap + getBytes vs. encoding straight into pooled buffers
+	static void directOutput() throws IOException {
+		String md = exampleMarkdown().repeat(500);
+		Compiler compiler = new Compiler();
+		ByteBufferPool pool = new ByteBufferPool(64 * 1024, 256);
+		ByteBuffer prefix = ByteBuffer.allocateDirect(64).put("<html><body>".getBytes(StandardCharsets.UTF_8)).flip();
+		ByteBuffer suffix = ByteBuffer.allocateDirect(64).put("</body></html>".getBytes(StandardCharsets.UTF_8)).flip();
+		WritableByteChannel discard = Channels.newChannel(OutputStream.nullOutputStream());
+
+		Supplier<?> viaString = () -> {
+			byte[] bytes = ("<html><body>" + compiler.compile(md) + "</body></html>").getBytes(StandardCharsets.UTF_8);
+			try {
+				discard.write(ByteBuffer.wrap(bytes));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes;
+		};
+		Supplier<?> viaBuffers = () -> {
+			try (Utf8Output out = new Utf8Output(pool)) {
+				out.appendEncoded(prefix);
+				compiler.compileTo(md, out);
+				out.appendEncoded(suffix);
+				out.writeTo(discard);
+				return out.size();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+
+		System.out.println("== directOutput ==");
+		System.out.printf("allocation: string + getBytes %,d bytes, pooled direct buffers %,d bytes%n",
+				allocatedBytes(viaString), allocatedBytes(viaBuffers));
+		report("response: string + getBytes", viaString);
+		report("response: pooled direct buffers", viaBuffers);
+		System.out.printf("pool: %d of %d buffers allocated, peak in use %d, exhausted %d%n", pool.getAllocated(),
+				pool.getMaxBuffers(), pool.getPeakInUse(), pool.getExhausted());
+	}
+
+	// Load test: clients compiling small documents in a loop while a large one arrives every
+	// 250ms, on one shared pool vs. CompileScheduler's lanes. Reports small-document latency.
+	static void scheduler() throws IOException {
+		String small = exampleMarkdown();
+		String large = small.repeat(Math.max(1, (2 << 20) / small.length()));
+		Compiler compiler = new Compiler();
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		System.out.println("== scheduler ==");
+		System.out.printf("small %,d chars, large %,d chars, %d cores%n", small.length(), large.length(), threads);
+		for (int i = 0; i < 3; i++) {
+			compiler.compile(large); // warm up
+		}
+
+		ExecutorService shared = Executors.newFixedThreadPool(threads);
+		loadTest("shared pool", small, large, md -> CompletableFuture.supplyAsync(() -> compiler.compile(md), shared));
+		shared.shutdownNow();
+
+		try (CompileScheduler scheduler = new CompileScheduler(compiler, CompileOptions.UNLIMITED)) {
+			loadTest("scheduler", small, large, scheduler::submit);
+			for (CompileScheduler.LaneStats lane : scheduler.stats()) {
+				System.out.printf("  %s lane: completed %d, shed %d, wait mean %.1f ms, p99 %.1f ms%n", lane.name(),
+						lane.completed(), lane.rejected(), lane.meanWaitMillis(), lane.p99WaitMillis());
+			}
+		}
+	}
+
+	private static void loadTest(String name, String small, String large,
+			Function<String, CompletableFuture<?>> submit) {
+		long end = System.nanoTime() + 5_000_000_000L;
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> clients = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread client = new Thread(() -> {
+				while (System.nanoTime() < end) {
+					long start = System.nanoTime();
+					submit.apply(small).join();
+					latencies.add(System.nanoTime() - start);
+				}
+			});
+			client.start();
+			clients.add(client);
+		}
+
+		List<CompletableFuture<?>> larges = new ArrayList<>();
+		while (System.nanoTime() < end) {
+			larges.add(submit.apply(large).exceptionally(e -> null));
+			LockSupport.parkNanos(250_000_000L);
+		}
+		for (Thread client : clients) {
+			try {
+				client.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		CompletableFuture.allOf(larges.toArray(CompletableFuture[]::new)).join();
+
+		long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+		System.out.printf("%-12s small docs: %,d compiled, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", name, sorted.length,
+				sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+	}
+
+	static long allocatedBytes(Supplier<?> op) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		op.get(); // warm up
+		long before = threads.getCurrentThreadAllocatedBytes();
+		sink = op.get();
+		return threads.getCurrentThreadAllocatedBytes() - before;
+	}
+
+	// heap still in use after a full gc while holding the result, minus the baseline
+	static long retainedBytes(Supplier<?> op) {
+		Runtime runtime = Runtime.getRuntime();
+		sink = null;
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		sink = op.get();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory() - before;
+	}
+
+	static String exampleMarkdown() throws IOException {
+		try (InputStream in = Benchmarks.class.getResourceAsStream("/testdata/example.text")) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	static void report(String name, Supplier<?> op) {
+		System.out.printf("%-45s %,12d ns/op%n", name, measure(op));
+	}
+
+	// runs op for ~1s to warm up, then reports the mean of ~2s of runs
+	static long measure(Supplier<?> op) {
+		runFor(1_000_000_000L, op);
+		long[] result = runFor(2_000_000_000L, op);
+		return result[0] / result[1];
+	}
+
+	private static long[] runFor(long nanos, Supplier<?> op) {
+		long start = System.nanoTime();
+		long iterations = 0;
+		long elapsed;
+		do {
+			sink = op.get();
+			iterations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+		return new long[] { elapsed, iterations };
+	}
+}
@@ -0,0 +1,695 @@
+package com.johnmayou.compiler;
+
+import java.nio.file.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.net.URISyntaxException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompilerTests {
+	@Test
+	void tokenizeParagraph() {
+		List<Lexer.Token> expected = List.of(
+				new Lexer.TextToken("text", false, false),
+				new Lexer.NewLineToken());
+		List<Lexer.Token> actual = new Compiler().tokenize("text");
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	void parseParagraph() {
+		Parser.ASTNode expected = new Parser.ASTRootNode(new ArrayList<>(List.of(
+				new Parser.ASTParagraphNode(List.of(
+						new Parser.ASTTextNode("text", false, false))))));
+		Parser.ASTNode actual = new Compiler().parse(new ArrayList<>(List.of(
+				new Lexer.TextToken("text", false, false),
+				new Lexer.NewLineToken())));
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	void genParagraph() {
+		String expected = "<p>text</p>";
+		String actual = new Compiler().gen(new Parser.ASTRootNode(new ArrayList<>(List.of(
+				new Parser.ASTParagraphNode(new ArrayList<>(List.of(
+						new Parser.ASTTextNode("text", false, false))))))));
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	void headerAltNeedsWholeUnderline() {
+		Compiler compiler = new Compiler();
+
+		assertEquals("<h1>Title</h1><hr>", compiler.compile("Title\n="));
+		assertEquals("<h2>x</h2><hr>", compiler.compile("x\n-"));
+		assertEquals("<h1>===</h1><hr>", compiler.compile("===\n="));
+		assertEquals("<h2>T</h2><hr>", compiler.compile("T\n-- \n"));
+		// not an underline, so not a header
+		assertEquals("<p>text</p><ul><li>item</li></ul>", compiler.compile("text\n- item\n"));
+		assertEquals("<p>text -x</p>", compiler.compile("text\n-x\n"));
+
+		CompileBudget budget = new CompileBudget(CompileOptions.UNLIMITED.withRecover(true));
+		assertEquals("<p>text</p><ul><li>item</li></ul>", compiler.compile("text\n- item\n", budget));
+		assertEquals("<h1>Title</h1><hr>", compiler.compile("Title\n=", budget));
+		assertEquals(0, budget.getDiagnosticCount());
+	}
+
+	@Test
+	void compileLimits() {
+		CompileLimitException tooLong = assertThrows(CompileLimitException.class,
+				() -> new Compiler(CompileOptions.UNLIMITED.withMaxInputLength(8)).compile("# a long header"));
+		assertEquals(CompileLimitException.Limit.INPUT_LENGTH, tooLong.getLimit());
+
+		CompileLimitException tooDeep = assertThrows(CompileLimitException.class,
+				() -> new Compiler(CompileOptions.UNLIMITED.withMaxNestingDepth(2)).compile("- 1\n  - 2\n    - 3\n"));
+		assertEquals(CompileLimitException.Limit.NESTING_DEPTH, tooDeep.getLimit());
+	}
+
+	@Test
+	void outputLimitStopsInsideOneHugeList() {
+		String md = "- item\n".repeat(5000);
+		Compiler compiler = new Compiler(CompileOptions.UNLIMITED.withMaxOutputLength(20000));
+		CompileLimitException tooBig = assertThrows(CompileLimitException.class, () -> compiler.compile(md));
+		assertEquals(CompileLimitException.Limit.OUTPUT_LENGTH, tooBig.getLimit());
+
+		try (Utf8Output out = new Utf8Output(new ByteBufferPool(4096, 16))) {
+			assertThrows(CompileLimitException.class, () -> compiler.compileTo(md, out));
+			assertTrue(out.size() <= 20000, "flushed " + out.size());
+		}
+	}
+
+	@Test
+	void compileEventRecordsFailures(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("compile.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("markdown.Compile").withThreshold(Duration.ZERO);
+			recording.start();
+			new Compiler().compile("# fine\n");
+			assertThrows(CompileLimitException.class,
+					() -> new Compiler(CompileOptions.UNLIMITED.withMaxInputLength(8)).compile("# too long for it"));
+			recording.stop();
+			recording.dump(file);
+		}
+
+		List<String> outcomes = RecordingFile.readAllEvents(file).stream()
+				.filter(e -> e.getEventType().getName().equals("markdown.Compile"))
+				.map(e -> e.getString("outcome") + " " + e.getInt("inputLength"))
+				.toList();
+		assertEquals(List.of("ok 7", "INPUT_LENGTH 17"), outcomes);
+	}
+
+	@Test
+	void compileCancelled() {
+		CompileBudget budget = new CompileBudget(CompileOptions.UNLIMITED);
+		budget.cancel();
+
+		CompileLimitException cancelled = assertThrows(CompileLimitException.class,
+				() -> new Compiler().compile("text\n".repeat(1000), budget));
+		assertEquals(CompileLimitException.Limit.CANCELLED, cancelled.getLimit());
+
+		// noticed on the next tick, not the next deadline check
+		CompileBudget running = new CompileBudget(CompileOptions.UNLIMITED);
+		running.tick();
+		running.cancel();
+		assertThrows(CompileLimitException.class, running::tick);
+	}
+
+	@Test
+	void cancellingScheduledCompilesCancelsTheirBudgets() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		List<String> compiled = new CopyOnWriteArrayList<>();
+		Compiler spinning = new Compiler() {
+			@Override
+			public String compile(String md, CompileBudget budget) {
+				compiled.add(md);
+				started.countDown();
+				while (true) {
+					budget.tick();
+				}
+			}
+
+			@Override
+			public void compileTo(String md, Utf8Output out, CompileBudget budget) {
+				out.append("<p>");
+				compile(md, budget);
+			}
+		};
+		ByteBufferPool pool = new ByteBufferPool(64, 4);
+
+		try (CompileScheduler scheduler = new CompileScheduler(spinning, CompileOptions.UNLIMITED, 1, 1, 100, 1 << 20,
+				1 << 20)) {
+			CompletableFuture<Void> running = scheduler.submit("running\n", new Utf8Output(pool));
+			CompletableFuture<String> queued = scheduler.submit("queued\n");
+			started.await();
+			assertTrue(queued.cancel(false));
+			assertTrue(running.cancel(false));
+
+			// cancelled right away, while the running compile may still be on its way out
+			for (CompletableFuture<?> future : List.of(running, queued)) {
+				assertTrue(future.isCancelled());
+				assertThrows(CancellationException.class, future::join);
+			}
+			scheduler.close();
+
+			// the queued compile failed when a worker picked it up, without running, and the
+			// cancelled compile's output went back to the pool once it stopped
+			assertEquals(List.of("running\n"), compiled);
+			assertEquals(0, scheduler.stats().get(0).queued());
+			assertEquals(2, scheduler.stats().get(0).completed());
+			assertEquals(0, pool.getInUse());
+		}
+	}
+
+	@Test
+	void compileErrorPointsAtSource() {
+		String md = "x".repeat(100_000) + "\n\ntext ![i](s) more\n\nnext\n";
+
+		CompileException error = assertThrows(CompileException.class, () -> new Compiler().compile(md));
+		assertEquals(3, error.getLine());
+		assertEquals(6, error.getColumn());
+		assertTrue(error.getMessage().length() < 500);
+
+		CompileBudget budget = new CompileBudget(CompileOptions.UNLIMITED.withRecover(true));
+		String html = new Compiler().compile(md, budget);
+		assertTrue(html.endsWith("<p>next</p>"));
+		assertEquals(1, budget.getDiagnostics().size());
+
+		Lexer.CodeBlockToken huge = new Lexer.CodeBlockToken("java", "x".repeat(100_000));
+		assertEquals(huge.toString().substring(0, 60) + "...", CompileException.describe(huge));
+		assertEquals("HeaderToken[size=2]", CompileException.describe(new Lexer.HeaderToken(2)));
+	}
+
+	@Test
+	void schedulerShedsHeavyLoadWithoutBlockingSmallDocuments() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		Compiler blocking = new Compiler() {
+			@Override
+			public String compile(String md, CompileBudget budget) {
+				if (md.length() >= 100) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return super.compile(md, budget);
+			}
+		};
+		String heavy = "word ".repeat(40) + "\n";
+
+		try (CompileScheduler scheduler = new CompileScheduler(blocking, CompileOptions.UNLIMITED, 1, 1, 100, 1 << 20,
+				250)) {
+			CompletableFuture<String> running = scheduler.submit(heavy);
+			while (scheduler.stats().get(1).active() == 0) {
+				Thread.sleep(1);
+			}
+			CompletableFuture<String> queued = scheduler.submit(heavy);
+			CompileLimitException shed = assertThrows(CompileLimitException.class, () -> scheduler.compile(heavy));
+			assertEquals(CompileLimitException.Limit.OVERLOADED, shed.getLimit());
+
+			// the heavy lane is stuck, the fast lane isn't
+			assertEquals("<p>small</p>", scheduler.compile("small\n"));
+
+			release.countDown();
+			assertEquals(running.join(), queued.join());
+			CompileScheduler.LaneStats heavyLane = scheduler.stats().get(1);
+			assertEquals(2, heavyLane.completed());
+			assertEquals(1, heavyLane.rejected());
+			assertEquals(1, scheduler.stats().get(0).completed());
+		}
+	}
+
+	@Test
+	void schedulerFailsQueuedCompilesPastTheirDeadline() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> compiled = new CopyOnWriteArrayList<>();
+		Compiler blocking = new Compiler() {
+			@Override
+			public String compile(String md, CompileBudget budget) {
+				compiled.add(md);
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return "";
+			}
+		};
+		CompileOptions options = CompileOptions.UNLIMITED.withTimeout(Duration.ofMillis(50)).withMaxInputLength(100);
+
+		try (CompileScheduler scheduler = new CompileScheduler(blocking, options, 1, 1, 100, 1 << 20, 1 << 20)) {
+			CompletableFuture<String> running = scheduler.submit("first\n");
+			CompletableFuture<String> queued = scheduler.submit("second\n");
+			Thread.sleep(100);
+			release.countDown();
+			running.join();
+
+			CompileLimitException late = assertThrows(CompileLimitException.class, () -> {
+				try {
+					queued.join();
+				} catch (CompletionException e) {
+					throw e.getCause();
+				}
+			});
+			assertEquals(CompileLimitException.Limit.DEADLINE, late.getLimit());
+			assertEquals(List.of("first\n"), compiled);
+
+			// oversized input fails its future too, rather than throwing at the caller
+			CompletableFuture<String> tooLong = scheduler.submit("x".repeat(101));
+			assertTrue(tooLong.isCompletedExceptionally());
+		}
+	}
+
+	@Test
+	void diskCacheSurvivesReopen(@TempDir Path dir) throws IOException {
+		Compiler compiler = new Compiler();
+		String md = "# Cached\n\ntext";
+
+		try (DiskCompileCache cache = new DiskCompileCache(dir, 1 << 20)) {
+			assertEquals(compiler.compile(md), cache.compile(compiler, md));
+			assertEquals(1, cache.getMisses());
+		}
+
+		try (DiskCompileCache cache = new DiskCompileCache(dir, 1 << 20)) {
+			assertEquals(compiler.compile(md), cache.compile(compiler, md));
+			assertEquals(1, cache.getHits());
+			assertEquals(0, cache.getMisses());
+		}
+	}
+
+	@Test
+	void diskCacheIsSingleProcessAndSurvivesCorruptSlots(@TempDir Path dir) throws IOException {
+		Compiler compiler = new Compiler();
+		String md = "# Cached\n\ntext";
+
+		try (DiskCompileCache cache = new DiskCompileCache(dir, 1 << 20)) {
+			cache.compile(compiler, md);
+			assertThrows(IOException.class, () -> new DiskCompileCache(dir, 1 << 20));
+		}
+
+		// point the one used slot past the end of the segment
+		ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(dir.resolve("cache.idx")));
+		for (int slot = 32; slot < index.limit(); slot += 24) {
+			if (index.getLong(slot + 8) != 0) {
+				index.putInt(slot + 16, 1 << 20);
+			}
+		}
+		Files.write(dir.resolve("cache.idx"), index.array());
+
+		try (DiskCompileCache cache = new DiskCompileCache(dir, 1 << 20)) {
+			assertEquals(compiler.compile(md), cache.compile(compiler, md));
+			assertEquals(1, cache.getMisses());
+		}
+	}
+
+	@Test
+	void diskCacheKeysOnOptions(@TempDir Path dir) throws IOException {
+		String md = "text ![i](s) more\n\nnext\n";
+		Compiler recovering = new Compiler(CompileOptions.UNLIMITED.withRecover(true));
+
+		try (DiskCompileCache cache = new DiskCompileCache(dir, 1 << 20)) {
+			assertTrue(cache.isEnabled());
+			assertEquals("<p>next</p>", cache.compile(recovering, md));
+			// the partial html from the recover compile doesn't answer a strict one
+			assertThrows(CompileException.class, () -> cache.compile(new Compiler(), md));
+			assertEquals("<p>next</p>", cache.compile(recovering, md));
+			assertEquals(1, cache.getHits());
+		}
+	}
+
+	@Test
+	void fragmentCacheReusesBlocks() {
+		FragmentCache cache = new FragmentCache(1 << 20);
+		Compiler compiler = new Compiler(CompileOptions.UNLIMITED, cache);
+		String footer = "\n\n---\n\n> shared footer\n";
+
+		assertEquals(new Compiler().compile("# One" + footer), compiler.compile("# One" + footer));
+		assertEquals(new Compiler().compile("# Two" + footer), compiler.compile("# Two" + footer));
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	void fragmentCacheEvictsLeastRecentlyUsed() {
+		FragmentCache cache = new FragmentCache(30);
+		cache.put("a\n", new FragmentCache.Fragment("<p>a</p>", 2));
+		cache.put("b\n", new FragmentCache.Fragment("<p>b</p>", 2));
+		cache.put("c\n", new FragmentCache.Fragment("<p>c</p>", 2));
+		cache.get("a\n");
+		cache.put("d\n", new FragmentCache.Fragment("<p>d</p>", 2));
+
+		assertTrue(cache.get("a\n") != null);
+		assertEquals(null, cache.get("b\n"));
+		assertEquals(30, cache.getChars());
+	}
+
+	@Test
+	void fragmentCacheChargesBlocksToOneTokenBudget() {
+		// 3 blocks of 2 tokens each: every block is under the limit, the document isn't
+		String md = "a\n\nb\n\nc\n";
+		CompileOptions options = CompileOptions.UNLIMITED.withMaxTokens(5);
+		FragmentCache cache = new FragmentCache(1 << 20);
+		Compiler compiler = new Compiler(options, cache);
+
+		assertThrows(CompileLimitException.class, () -> new Compiler(options).compile(md));
+		CompileLimitException tooMany = assertThrows(CompileLimitException.class, () -> compiler.compile(md));
+		assertEquals(CompileLimitException.Limit.TOKENS, tooMany.getLimit());
+
+		// hits are charged as well
+		assertEquals("<p>a</p><p>b</p>", compiler.compile("a\n\nb\n"));
+		assertEquals("<p>c</p>", compiler.compile("c\n"));
+		assertEquals(3, cache.size());
+		assertThrows(CompileLimitException.class, () -> compiler.compile(md));
+	}
+
+	@Test
+	void compileToPooledBuffers() throws IOException {
+		String md = "# Caf\u00e9 \u2603\n\n" + "text \ud83d\ude00 **bold** `code` [l](h)\n\n".repeat(50) + "- \u00fc\n  - \u20ac\n";
+		// tiny buffers so characters straddle buffer boundaries, and few so the pool runs out
+		ByteBufferPool pool = new ByteBufferPool(7, 4);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (Utf8Output out = new Utf8Output(pool)) {
+			out.appendEncoded(ByteBuffer.wrap("<body>".getBytes(StandardCharsets.UTF_8)));
+			new Compiler().compileTo(md, out);
+			out.writeTo(Channels.newChannel(bytes));
+			assertEquals(bytes.size(), out.size());
+			assertEquals(4, pool.getInUse());
+		}
+
+		assertEquals("<body>" + new Compiler().compile(md), bytes.toString(StandardCharsets.UTF_8));
+		assertEquals(0, pool.getInUse());
+		assertEquals(4, pool.getAllocated());
+		assertTrue(pool.getExhausted() > 0);
+	}
+
+	@Test
+	void bufferPoolIgnoresDoubleAndForeignRelease() {
+		ByteBufferPool pool = new ByteBufferPool(8, 1);
+		ByteBuffer buffer = pool.acquire();
+		pool.release(buffer);
+		pool.release(buffer);
+		pool.release(ByteBuffer.allocateDirect(8));
+		assertEquals(0, pool.getInUse());
+
+		// the one buffer comes back once, then the pool is exhausted
+		assertTrue(pool.acquire() == buffer);
+		assertTrue(!pool.acquire().isDirect());
+		assertEquals(1, pool.getInUse());
+	}
+
+	@Test
+	void astCodecRoundTrip() throws IOException, URISyntaxException {
+		String md = Files.readString(Paths.get(getClass().getResource("/testdata/example.text").toURI()));
+		String html = new Compiler().compile(md);
+
+		assertEquals(html, AstCodec.render(AstCodec.encode(md, false)));
+		assertEquals(html, AstCodec.render(AstCodec.encode(md, true), md));
+		assertEquals(html, AstCodec.render(AstCodec.encode(new Compiler(), md, true), md));
+	}
+
+	@Test
+	void genDeeplyNestedList() {
+		int depth = 50_000;
+		List<Lexer.Token> tks = new ArrayList<>();
+		for (int i = 0; i < depth; i++) {
+			tks.add(new Lexer.ListItemToken(i, false, -1));
+			tks.add(new Lexer.TextToken("item", false, false));
+			tks.add(new Lexer.NewLineToken());
+		}
+		Compiler compiler = new Compiler();
+		String html = compiler.gen(compiler.parse(tks));
+
+		assertEquals("<ul><li>item".repeat(depth) + "</li></ul>".repeat(depth), html);
+	}
+
+	@Test
+	void astCodecDeeplyNestedList() {
+		int depth = 50_000;
+		List<Lexer.Token> tks = new ArrayList<>();
+		for (int i = 0; i < depth; i++) {
+			tks.add(new Lexer.ListItemToken(i, false, -1));
+			tks.add(new Lexer.TextToken("item", false, false));
+			tks.add(new Lexer.NewLineToken());
+		}
+		Compiler compiler = new Compiler();
+		Parser.ASTRootNode ast = compiler.parse(tks);
+		byte[] encoded = AstCodec.encode(ast);
+		String html = compiler.gen(ast);
+
+		// record equals() recurses, so compare what the trees render to
+		assertEquals(html, compiler.gen(AstCodec.decode(encoded)));
+		assertEquals(html, AstCodec.render(encoded));
+	}
+
+	@Test
+	void astCodecInlinesStringsMissingFromSource() {
+		// joined lines aren't in the source, and "later" is too far past the previous ref
+		String md = "first line\nsecond line\n\n" + "x ".repeat(2000) + "\n\nlater\n";
+		Compiler compiler = new Compiler();
+		Parser.ASTRootNode ast = compiler.parse(compiler.tokenize(md));
+		byte[] encoded = AstCodec.encode(ast, md);
+
+		assertEquals(ast, AstCodec.decode(encoded, md));
+		assertEquals(compiler.gen(ast), AstCodec.render(encoded, md));
+	}
+
+	@Test
+	void flatAstRendersLikeRecordTree() throws IOException, URISyntaxException {
+		String md = Files.readString(Paths.get(getClass().getResource("/testdata/example.text").toURI()));
+		Compiler compiler = new Compiler();
+		List<Lexer.Token> tks = compiler.tokenize(md);
+
+		assertEquals(compiler.gen(compiler.parse(tks)), compiler.gen(compiler.parseFlat(tks)));
+		assertEquals(compiler.compile(md), compiler.gen(compiler.parseFlat(md)));
+	}
+
+	@Test
+	void warmupSettlesAfterSteadyQuietRounds() {
+		Warmup.Settling settling = new Warmup.Settling();
+		settling.round(1000, 1000, 0);
+		settling.round(1000, 1000, 0);
+		settling.round(1000, 1000, 0);
+		// the JIT was busy for 10% of the round, start over
+		settling.round(1000, 1000, 100);
+		settling.round(1000, 1000, 0);
+		settling.round(1000, 1000, 0);
+		assertTrue(!settling.isSettled());
+		// throughput moved by 10%, start over
+		settling.round(1100, 1000, 0);
+		settling.round(1100, 1000, -1);
+		settling.round(1100, 1000, -1);
+		assertTrue(!settling.isSettled());
+		settling.round(1100, 1000, -1);
+		assertTrue(settling.isSettled());
+	}
+
+	@Test
+	void warmupSkipsFailingDocumentsAndStopsAtMaxDuration() {
+		// strict mode fails on the image, the warm-up leaves it out
+		List<String> corpus = List.of("# Title\n\ntext **bold**\n", "text ![i](s) more\n");
+		Warmup.Result result = Warmup.run(new Compiler(), corpus, Duration.ofMillis(1));
+
+		assertEquals(1, result.skipped());
+		// a round always runs to the end, then the deadline stops it long before it could settle
+		assertEquals(1, result.rounds());
+		assertTrue(!result.settled());
+		assertTrue(result.documents() > 0);
+		assertTrue(result.duration().toMillis() < 5000);
+	}
+
+	@Test
+	void explainBreaksDownCompile() {
+		String md = "# Title\n\n" + "plain text line\n".repeat(20) + "\n- item **bold**\n\n" + "y".repeat(5000) + " [link](h)\n";
+		Compiler compiler = new Compiler();
+		CompileProfile profile = compiler.explain(md);
+
+		assertEquals(compiler.compile(md), profile.html());
+		assertEquals(List.of("lex", "parse", "gen"), profile.stages().stream().map(CompileProfile.Stage::name).toList());
+
+		CompileProfile.Rule header = profile.rules().stream().filter(r -> r.name().equals("tryTokenizeHeader")).findFirst()
+				.orElseThrow();
+		assertEquals(1, header.hits());
+		assertTrue(header.attempts() > header.hits());
+		assertTrue(profile.rules().stream().anyMatch(r -> r.name().equals("LINK_PATTERN") && r.hits() == 1));
+
+		assertEquals(1, (int) profile.tokens().get("HeaderToken"));
+		assertEquals(1, (int) profile.tokens().get("ListItemToken"));
+		assertEquals(1, (int) profile.nodes().get("ASTLinkNode"));
+
+		assertTrue(profile.slowestLines().size() <= 10);
+		// the long line tries every inline pattern at each of its chars; its excerpt is cut at 80
+		CompileProfile.Line slowest = profile.slowestLines().get(0);
+		assertEquals(26, slowest.line());
+		assertEquals("y".repeat(80), slowest.text());
+	}
+
+	@Test
+	void includeRebuildsOnlyDependents(@TempDir Path dir) throws IOException {
+		Files.createDirectories(dir.resolve("shared"));
+		Files.writeString(dir.resolve("shared/footer.md"), "> footer v1\n");
+		Files.writeString(dir.resolve("a.md"), "# A\n!include shared/footer.md\n");
+		Files.writeString(dir.resolve("b.md"), "# B\n");
+		IncludeCompiler compiler = new IncludeCompiler(new Compiler(), new FileIncludeResolver(dir));
+
+		assertEquals("<h1>A</h1><hr><blockquote><p>footer v1</p></blockquote>", compiler.compile("a.md"));
+		assertEquals("<h1>B</h1><hr>", compiler.compile("b.md"));
+		assertEquals(Set.of("shared/footer.md"), compiler.dependenciesOf("a.md"));
+
+		Files.writeString(dir.resolve("shared/footer.md"), "> footer v2\n");
+		assertEquals(Set.of("shared/footer.md", "a.md"), compiler.invalidate(List.of("shared/footer.md")));
+		assertTrue(compiler.isCached("b.md"));
+		assertEquals("<h1>A</h1><hr><blockquote><p>footer v2</p></blockquote>", compiler.compile("a.md"));
+	}
+
+	@Test
+	void includeSkipsDirectivesInCodeBlocksOnly(@TempDir Path dir) throws IOException {
+		Files.writeString(dir.resolve("f.md"), "f\n");
+		IncludeCompiler compiler = new IncludeCompiler(new Compiler(), new FileIncludeResolver(dir));
+
+		Files.writeString(dir.resolve("fenced.md"), "```\n!include f.md\n```\n");
+		assertEquals("<pre><code class=\"\">!include f.md\n</code></pre>", compiler.compile("fenced.md"));
+		// a code block closes at the next ```, even mid-line
+		Files.writeString(dir.resolve("closed.md"), "```\ncode ```\n!include f.md\n");
+		assertEquals("<pre><code class=\"\">code </code></pre><p>f</p>", compiler.compile("closed.md"));
+		// and one that never closes isn't a code block
+		Files.writeString(dir.resolve("open.md"), "```\n!include f.md\n");
+		assertEquals(new Compiler().compile("```\n") + "<p>f</p>", compiler.compile("open.md"));
+	}
+
+	@Test
+	void includeOfMissingFragmentRebuildsOnceCreated(@TempDir Path dir) throws IOException {
+		Files.writeString(dir.resolve("a.md"), "!include f.md\n");
+		IncludeCompiler compiler = new IncludeCompiler(new Compiler(), new FileIncludeResolver(dir));
+
+		assertThrows(UncheckedIOException.class, () -> compiler.compile("a.md"));
+		assertEquals(Set.of("a.md"), compiler.dependentsOf("f.md"));
+
+		Files.writeString(dir.resolve("f.md"), "f\n");
+		assertEquals(Set.of("f.md", "a.md"), compiler.invalidate(List.of("f.md")));
+		assertEquals("<p>f</p>", compiler.compile("a.md"));
+	}
+
+	@Test
+	void watchRebuildsEditedFilesAndDependents(@TempDir Path dir) throws IOException, InterruptedException {
+		Path src = dir.resolve("src");
+		Path out = dir.resolve("out");
+		Files.createDirectories(src.resolve("shared"));
+		Files.writeString(src.resolve("shared/footer.md"), "> footer v1\n");
+		Files.writeString(src.resolve("a.md"), "# A\n!include shared/footer.md\n");
+
+		try (WatchCompiler watcher = new WatchCompiler(src, out, 1, Duration.ofMillis(10), new Compiler())) {
+			watcher.buildAll();
+			assertEquals("<h1>A</h1><hr><blockquote><p>footer v1</p></blockquote>", Files.readString(out.resolve("a.html")));
+
+			Thread watching = new Thread(() -> {
+				try {
+					watcher.watch();
+				} catch (IOException | InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			watching.setDaemon(true);
+			watching.start();
+
+			awaitRebuild(src.resolve("shared/footer.md"), "> footer v2\n", out.resolve("a.html"),
+					"<h1>A</h1><hr><blockquote><p>footer v2</p></blockquote>");
+			assertEquals("<blockquote><p>footer v2</p></blockquote>", Files.readString(out.resolve("shared/footer.html")));
+			awaitRebuild(src.resolve("a.md"), "# A2\n!include shared/footer.md\n", out.resolve("a.html"),
+					"<h1>A2</h1><hr><blockquote><p>footer v2</p></blockquote>");
+		}
+	}
+
+	// the watcher registers its directories once watch() has started, so keep rewriting the file
+	// until a write lands after that
+	private static void awaitRebuild(Path file, String content, Path output, String expected)
+			throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (true) {
+			Files.writeString(file, content);
+			Thread.sleep(100);
+			if (Files.readString(output).equals(expected)) {
+				return;
+			}
+			assertTrue(System.nanoTime() < deadline, output + " wasn't rebuilt: " + Files.readString(output));
+		}
+	}
+
+	@Test
+	void goldenFiles() throws IOException, URISyntaxException {
+		List<String> failures = new ArrayList<>();
+		Path testDataDir = Paths.get(getClass().getResource("/testdata").toURI());
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(testDataDir, "*.text")) {
+			for (Path filepath : files) {
+				String testName = "golden_" + filepath.getFileName();
+				try {
+					String md = Files.readString(filepath);
+					String html = prettifyHtml(new Compiler().compile(md));
+
+					Path htmlPath = Paths.get(
+							getClass().getResource("/testdata/" + filepath.getFileName().toString().replace(".text", ".html"))
+									.toURI());
+
+					String actual = Files.readString(htmlPath);
+					if (!actual.equals(html)) {
+						failures.add(MessageFormat.format("{0}\n - Expected:\n{1}\n - Actual:\n{2}", testName, html, actual));
+					}
+				} catch (Exception e) {
+					failures.add(MessageFormat.format("{0} - Exception thrown: {1}", testName, e));
+				}
+			}
+		}
+
+		StringBuilder message = new StringBuilder();
+		for (String failure : failures) {
+			message.append("\n=======================\n" + failure);
+		}
+
+		assertEquals(failures.size(), 0, message.toString());
+	}
+
+	private String prettifyHtml(String html) throws IOException, InterruptedException {
+		Process process = (new ProcessBuilder("prettier", "--parser", "html")).start();
+
+		// send html to stdin
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+		writer.write(html);
+		writer.close();
+
+		// validate success
+		int exitCode = process.waitFor();
+		String stderr = new String(process.getErrorStream().readAllBytes());
+		if (exitCode != 0 || stderr.length() > 0) {
+			throw new RuntimeException("Prettier command failed: " + stderr);
+		}
+
+		return new String(process.getInputStream().readAllBytes());
+	}
+}
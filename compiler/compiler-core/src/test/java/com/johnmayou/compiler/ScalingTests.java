@@ -0,0 +1,146 @@
+package com.johnmayou.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compiles generated documents at doubling sizes and fits the growth of each stage's time
+// and allocation against the size of that stage's input (the slope on a log-log scale: 1 is
+// linear, 2 is quadratic): lex against chars, parse against tokens, gen against AST nodes.
+// Deep lists and quotes take O(depth^2) chars of indentation, so against chars a parse that
+// is quadratic in depth would still look linear; their tokens and nodes grow with depth.
+// Constructs whose token count doesn't grow (one code block, one long link) fall back to
+// chars. Allocation is deterministic enough for a tight bound; time only gets a loose one,
+// and only when the stage takes long enough to measure, so this stays stable on ordinary
+// machines.
+class ScalingTests {
+	private static final int SIZES = 5;
+	private static final int RUNS = 5;
+	private static final double MAX_ALLOCATION_SLOPE = 1.25;
+	private static final double MAX_TIME_SLOPE = 1.6;
+	private static final long MIN_MEASURABLE_NANOS = 5_000_000;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	static Stream<Arguments> constructs() {
+		return Stream.of(
+				Arguments.of("paragraphs", 256, (IntFunction<String>) n -> "Some *text* with **bold** and `code`.\nmore\n\n"
+						.repeat(n)),
+				Arguments.of("deepList", 64, (IntFunction<String>) n -> {
+					StringBuilder md = new StringBuilder();
+					for (int i = 0; i < n; i++) {
+						md.append("  ".repeat(i)).append("- item\n");
+					}
+					return md.toString();
+				}),
+				Arguments.of("nestedQuotes", 64, (IntFunction<String>) n -> {
+					StringBuilder md = new StringBuilder();
+					for (int i = 0; i < n; i++) {
+						md.append(">").append(" >".repeat(i)).append(" quote\n");
+					}
+					return md.toString();
+				}),
+				Arguments.of("longCodeBlock", 4096, (IntFunction<String>) n -> "```java\n" + "int x = 1;\n".repeat(n) + "```\n"),
+				Arguments.of("linkDenseLine", 256, (IntFunction<String>) n -> "[link](http://x.com) and text ".repeat(n) + "\n"));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("constructs")
+	void stagesScaleLinearly(String name, int base, IntFunction<String> doc) {
+		Compiler compiler = new Compiler();
+		String[] stages = { "lex", "parse", "gen" };
+		String[] units = { "chars", "tokens", "nodes" };
+		double[][] sizes = new double[stages.length][SIZES];
+		double[][] nanos = new double[stages.length][SIZES];
+		double[][] bytes = new double[stages.length][SIZES];
+
+		// warm up on the largest input so the JIT has settled before measuring
+		String largest = doc.apply(base << (SIZES - 1));
+		for (int i = 0; i < 3; i++) {
+			compiler.compile(largest);
+		}
+
+		for (int size = 0; size < SIZES; size++) {
+			String md = doc.apply(base << size);
+			sizes[0][size] = md.length();
+			for (int stage = 0; stage < stages.length; stage++) {
+				nanos[stage][size] = Double.MAX_VALUE;
+			}
+
+			for (int run = 0; run < RUNS; run++) {
+				long[] t = new long[4];
+				long[] a = new long[4];
+
+				t[0] = System.nanoTime();
+				a[0] = THREADS.getCurrentThreadAllocatedBytes();
+				List<Lexer.Token> tks = compiler.tokenize(md);
+				t[1] = System.nanoTime();
+				a[1] = THREADS.getCurrentThreadAllocatedBytes();
+				Parser.ASTRootNode ast = compiler.parse(tks);
+				t[2] = System.nanoTime();
+				a[2] = THREADS.getCurrentThreadAllocatedBytes();
+				compiler.gen(ast);
+				t[3] = System.nanoTime();
+				a[3] = THREADS.getCurrentThreadAllocatedBytes();
+
+				sizes[1][size] = tks.size();
+				sizes[2][size] = CompilerEvents.countNodes(ast);
+				for (int stage = 0; stage < stages.length; stage++) {
+					nanos[stage][size] = Math.min(nanos[stage][size], t[stage + 1] - t[stage]);
+					bytes[stage][size] = a[stage + 1] - a[stage];
+				}
+			}
+		}
+
+		for (int stage = 0; stage < stages.length; stage++) {
+			boolean grows = sizes[stage][SIZES - 1] > sizes[stage][0];
+			double[] x = grows ? sizes[stage] : sizes[0];
+			String unit = grows ? units[stage] : units[0];
+			String label = name + " " + stages[stage] + " (against " + unit + ")";
+			String table = table(x, unit, nanos[stage], bytes[stage]);
+			double allocationSlope = slope(x, bytes[stage]);
+			assertTrue(allocationSlope <= MAX_ALLOCATION_SLOPE, label + " allocation grows with exponent "
+					+ allocationSlope + "\n" + table);
+
+			if (nanos[stage][SIZES - 1] >= MIN_MEASURABLE_NANOS) {
+				double timeSlope = slope(x, nanos[stage]);
+				assertTrue(timeSlope <= MAX_TIME_SLOPE, label + " time grows with exponent "
+						+ timeSlope + "\n" + table);
+			}
+		}
+	}
+
+	// least squares fit of log(y) = slope * log(x) + c
+	private static double slope(double[] x, double[] y) {
+		double meanX = 0;
+		double meanY = 0;
+		for (int i = 0; i < x.length; i++) {
+			meanX += Math.log(x[i]) / x.length;
+			meanY += Math.log(Math.max(y[i], 1)) / x.length;
+		}
+
+		double covariance = 0;
+		double variance = 0;
+		for (int i = 0; i < x.length; i++) {
+			double dx = Math.log(x[i]) - meanX;
+			covariance += dx * (Math.log(Math.max(y[i], 1)) - meanY);
+			variance += dx * dx;
+		}
+		return covariance / variance;
+	}
+
+	private static String table(double[] sizes, String unit, double[] nanos, double[] bytes) {
+		StringBuilder table = new StringBuilder();
+		for (int i = 0; i < sizes.length; i++) {
+			table.append(String.format("  %,12.0f %s %,10.2f ms %,14.0f bytes%n", sizes[i], unit, nanos[i] / 1e6, bytes[i]));
+		}
+		return table.toString();
+	}
+}
@@ -0,0 +1,21 @@
+package com.johnmayou.compiler.web;
+
+import com.johnmayou.compiler.CompileScheduler;
+import com.johnmayou.compiler.Compiler;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+@SpringBootApplication
+public class CompilerApplication {
+	public static void main(String[] args) {
+		SpringApplication.run(CompilerApplication.class, args);
+	}
+
+	// one scheduler for every endpoint, so they all share its admission control
+	@Bean
+	public CompileScheduler compileScheduler() {
+		return new CompileScheduler(new Compiler(CompilerController.OPTIONS), CompilerController.OPTIONS);
+	}
+}
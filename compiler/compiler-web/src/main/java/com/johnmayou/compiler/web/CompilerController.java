@@ -0,0 +1,174 @@
+package com.johnmayou.compiler.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.johnmayou.compiler.ByteBufferPool;
+import com.johnmayou.compiler.CompileException;
+import com.johnmayou.compiler.CompileLimitException;
+import com.johnmayou.compiler.CompileOptions;
+import com.johnmayou.compiler.CompileScheduler;
+import com.johnmayou.compiler.Utf8Output;
+
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@RestController
+public class CompilerController {
+  private static final String PAGE_PREFIX = """
+      <!DOCTYPE html>
+      <html>
+      <head>
+          <title>Markdown Preview</title>
+          <style>
+              body { font-family: Arial, sans-serif; margin: 40px; }
+              blockquote { color: gray; border-left: 4px solid #ccc; padding-left: 10px; }
+              strong { font-weight: bold; }
+          </style>
+      </head>
+      <body>
+          """;
+  private static final String PAGE_SUFFIX = """
+      </body>
+      </html>
+      """;
+
+  // encoded once, every response shares them
+  private static final ByteBuffer PAGE_PREFIX_BYTES = encode(PAGE_PREFIX);
+  private static final ByteBuffer PAGE_SUFFIX_BYTES = encode(PAGE_SUFFIX);
+
+  private static final MediaType HTML = new MediaType("text", "html", StandardCharsets.UTF_8);
+
+  // serve what parses rather than failing the whole page on one bad construct
+  static final CompileOptions OPTIONS = CompileOptions.DEFAULT.withRecover(true);
+
+  private final CompileScheduler scheduler;
+  // 64 x 64KB of direct memory; pages that need more than what's free fall back to heap buffers
+  private final ByteBufferPool bufferPool = new ByteBufferPool(64 * 1024, 64);
+
+  public CompilerController(CompileScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  // Async, so a client that disconnects or a request that times out cancels its compile
+  // rather than leaving it to hold a worker until it finishes.
+  @GetMapping("/")
+  public DeferredResult<ResponseEntity<StreamingResponseBody>> hello(
+      @RequestParam(value = "name", defaultValue = "World") String name) throws IOException {
+    ClassPathResource resource = new ClassPathResource("example.text");
+    String markdown = Files.readString(resource.getFile().toPath());
+
+    DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>();
+    Utf8Output out = new Utf8Output(this.bufferPool);
+    out.appendEncoded(PAGE_PREFIX_BYTES);
+    CompletableFuture<Void> compile = this.scheduler.submit(markdown, out);
+    result.onTimeout(() -> compile.cancel(false));
+    result.onError(e -> compile.cancel(false));
+
+    compile.whenComplete((ignored, e) -> {
+      if (e != null) {
+        // a cancelled compile may still be writing to out; the scheduler closes it once it stops
+        if (!compile.isCancelled()) {
+          out.close();
+        }
+        result.setErrorResult(e);
+        return;
+      }
+      out.appendEncoded(PAGE_SUFFIX_BYTES);
+      StreamingResponseBody body = stream -> {
+        try (out) {
+          out.writeTo(channel(stream));
+        }
+      };
+      if (!result.setResult(ResponseEntity.ok().contentType(HTML).contentLength(out.size()).body(body))) {
+        // the request already timed out or failed
+        out.close();
+      }
+    });
+    return result;
+  }
+
+  @GetMapping("/metrics/buffer-pool")
+  public Map<String, Number> bufferPoolMetrics() {
+    return Map.of(
+        "bufferSize", this.bufferPool.getBufferSize(),
+        "maxBuffers", this.bufferPool.getMaxBuffers(),
+        "allocated", this.bufferPool.getAllocated(),
+        "inUse", this.bufferPool.getInUse(),
+        "peakInUse", this.bufferPool.getPeakInUse(),
+        "occupancy", this.bufferPool.getOccupancy(),
+        "acquired", this.bufferPool.getAcquired(),
+        "exhausted", this.bufferPool.getExhausted());
+  }
+
+  @GetMapping("/metrics/scheduler")
+  public List<CompileScheduler.LaneStats> schedulerMetrics() {
+    return this.scheduler.stats();
+  }
+
+  @ExceptionHandler(CompileLimitException.class)
+  public ResponseEntity<String> handleCompileLimit(CompileLimitException e) {
+    if (e.getLimit() == CompileLimitException.Limit.OVERLOADED) {
+      // shed load, the client can come back later
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+          .body(e.getLimit() + ": " + e.getMessage());
+    }
+    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getLimit() + ": " + e.getMessage());
+  }
+
+  @ExceptionHandler(CompileException.class)
+  public ResponseEntity<String> handleCompileError(CompileException e) {
+    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+  }
+
+  private static ByteBuffer encode(String str) {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer();
+  }
+
+  // Tomcat's stream takes a ByteBuffer directly, which skips the generic adapter's extra
+  // copy through a byte[] (Tomcat still copies it into its own output buffer); any other
+  // container gets the generic adapter
+  private static WritableByteChannel channel(OutputStream stream) {
+    if (!(stream instanceof CoyoteOutputStream coyote)) {
+      return Channels.newChannel(stream);
+    }
+    return new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        coyote.write(src);
+        src.position(src.limit());
+        return written;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() throws IOException {
+        coyote.close();
+      }
+    };
+  }
+}
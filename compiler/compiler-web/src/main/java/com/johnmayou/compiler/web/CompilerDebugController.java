@@ -0,0 +1,54 @@
+package com.johnmayou.compiler.web;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import com.johnmayou.compiler.CompileLimitException;
+import com.johnmayou.compiler.CompileProfile;
+import com.johnmayou.compiler.CompileScheduler;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+// Explains why a document compiles slowly: POST the markdown to /debug/explain to get the html
+// along with the per-stage, per-rule and per-line breakdown. Off unless compiler.debug.enabled
+// is set, since the breakdown echoes the document back and explaining is slow. Explains go
+// through the shared scheduler's heavy lane, so they're shed like any other heavy compile.
+// The loopback check only helps without a reverse proxy on the same host; behind one, keep the
+// endpoint disabled or block /debug at the proxy.
+@RestController
+@ConditionalOnProperty(name = "compiler.debug.enabled", havingValue = "true")
+public class CompilerDebugController {
+  private final CompileScheduler scheduler;
+
+  public CompilerDebugController(CompileScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  @PostMapping("/debug/explain")
+  public ResponseEntity<CompileProfile> explain(@RequestBody String markdown, HttpServletRequest request)
+      throws UnknownHostException {
+    // the remote address is always a literal, so this doesn't do a lookup
+    if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    return ResponseEntity.ok(this.scheduler.explain(markdown));
+  }
+
+  @ExceptionHandler(CompileLimitException.class)
+  public ResponseEntity<String> handleCompileLimit(CompileLimitException e) {
+    if (e.getLimit() == CompileLimitException.Limit.OVERLOADED) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+          .body(e.getLimit() + ": " + e.getMessage());
+    }
+    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getLimit() + ": " + e.getMessage());
+  }
+}
@@ -0,0 +1,59 @@
+package com.johnmayou.compiler.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.johnmayou.compiler.Compiler;
+import com.johnmayou.compiler.Warmup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+// Warms up the JIT before the app reports ready. Runners finish before Spring Boot marks the
+// app as accepting traffic, so the readiness probe stays out of service until this returns.
+@Component
+@ConditionalOnProperty(name = "compiler.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class CompilerWarmup implements ApplicationRunner {
+  private static final Logger log = LoggerFactory.getLogger(CompilerWarmup.class);
+
+  private final ResourcePatternResolver resources;
+  private final List<String> corpus;
+  private final Duration maxDuration;
+
+  public CompilerWarmup(ResourcePatternResolver resources,
+      @Value("${compiler.warmup.corpus:classpath:example.text,classpath*:warmup/*.text}") List<String> corpus,
+      @Value("${compiler.warmup.max-duration:30s}") Duration maxDuration) {
+    this.resources = resources;
+    this.corpus = corpus;
+    this.maxDuration = maxDuration;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) throws IOException {
+    List<String> documents = new ArrayList<>();
+    for (String location : this.corpus) {
+      for (Resource resource : this.resources.getResources(location)) {
+        documents.add(resource.getContentAsString(StandardCharsets.UTF_8));
+      }
+    }
+    if (documents.isEmpty()) {
+      log.warn("No warm-up documents found at {}", this.corpus);
+      return;
+    }
+
+    Warmup.Result result = Warmup.run(new Compiler(CompilerController.OPTIONS), documents, this.maxDuration);
+    log.info("JIT warm-up {} after {} ms: {} rounds over {} documents ({} skipped), {} compiles, {} KB/s",
+        result.settled() ? "settled" : "stopped unsettled", result.duration().toMillis(), result.rounds(),
+        documents.size(), result.skipped(), result.documents(), Math.round(result.charsPerSecond() / 1024));
+  }
+}
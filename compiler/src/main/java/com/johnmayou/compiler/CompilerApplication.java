@@ -1,11 +0,0 @@
-package com.johnmayou.compiler;
-
-import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
-
-@SpringBootApplication
-public class CompilerApplication {
-	public static void main(String[] args) {
-		SpringApplication.run(CompilerApplication.class, args);
-	}
-}